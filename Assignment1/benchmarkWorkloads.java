@@ -0,0 +1,213 @@
+/**
+ * benchmarkWorkloads prepares the work measured by the JMH suite in
+ * {@code benchmarks.indexBenchmarks}. Each method does all of its setup up front and returns a
+ * Callable that runs one measured operation.
+ *
+ * JMH does not allow benchmarks in the default package, and classes in a named package cannot
+ * refer to classes in the default package. The benchmark class therefore looks these methods
+ * up by name. Their signatures use JDK types only.
+ *
+ */
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.index.*;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.Version;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+public class benchmarkWorkloads {
+
+    /**
+     *
+     * @param dir       - Directory the corpus is written to
+     * @param documents - Number of documents
+     * @return the corpus files
+     * @throws IOException
+     */
+
+    public static File[] generateCorpus(File dir, int documents) throws IOException {
+        return new syntheticCorpus(42).generate(dir, documents, 500);
+    }
+
+    /**
+     *
+     * @param files - Corpus files
+     * @return extracts every document from the files; returns the number of documents
+     */
+
+    public static Callable<Long> extractDocuments(final File[] files) {
+        return new Callable<Long>() {
+            @Override
+            public Long call() throws IOException {
+                return (long) readDocuments(files, null);
+            }
+        };
+    }
+
+    /**
+     *
+     * @param files        - Corpus files, parsed up front
+     * @param analyzerName - Class name of one of the {@link indexComparison#analyzers}
+     * @return tokenizes the TEXT of every document; returns the number of tokens
+     * @throws IOException
+     */
+
+    public static Callable<Long> tokenize(File[] files, String analyzerName) throws IOException {
+        Analyzer selected = null;
+        for (Analyzer candidate : indexComparison.analyzers) {
+            if (indexComparison.analyzerName(candidate).equals(analyzerName)) {
+                selected = candidate;
+            }
+        }
+        if (selected == null) {
+            throw new IllegalArgumentException("Unknown analyzer " + analyzerName);
+        }
+        final Analyzer analyzer = selected;
+        final List<String> texts = new ArrayList<String>();
+        readDocuments(files, texts);
+        return new Callable<Long>() {
+            @Override
+            public Long call() throws IOException {
+                long tokens = 0;
+                for (String text : texts) {
+                    TokenStream stream = analyzer.tokenStream("TEXT", text);
+                    try {
+                        stream.reset();
+                        while (stream.incrementToken()) {
+                            tokens++;
+                        }
+                        stream.end();
+                    } finally {
+                        stream.close();
+                    }
+                }
+                return tokens;
+            }
+        };
+    }
+
+    /**
+     *
+     * @param files     - Corpus files
+     * @param indexRoot - Directory under which each build writes a new index
+     * @return builds a StandardAnalyzer index of the files; returns the number of documents
+     */
+
+    public static Callable<Long> buildIndex(final File[] files, final File indexRoot) {
+        return new Callable<Long>() {
+            private int builds;
+
+            @Override
+            public Long call() throws IOException {
+                return (long) build(files, new File(indexRoot, "build-" + builds++));
+            }
+        };
+    }
+
+    /**
+     * The returned Callable is also Closeable; closing it closes the index reader.
+     *
+     * @param indexDir - Index built by {@link #build}
+     * @return looks up docFreq and totalTermFreq of every 10th TEXT term (up to 10000) and of 100
+     *         absent terms; returns the sum of all frequencies
+     * @throws IOException
+     */
+
+    public static Callable<Long> termStatistics(File indexDir) throws IOException {
+        return new termStatisticsWorkload(DirectoryReader.open(FSDirectory.open(indexDir)));
+    }
+
+    private static class termStatisticsWorkload implements Callable<Long>, Closeable {
+
+        private final IndexReader indexReader;
+        private final List<Term> terms = new ArrayList<Term>();
+
+        termStatisticsWorkload(IndexReader indexReader) throws IOException {
+            this.indexReader = indexReader;
+            TermsEnum termsEnum = MultiFields.getTerms(indexReader, "TEXT").iterator(null);
+            BytesRef term;
+            int ordinal = 0;
+            while ((term = termsEnum.next()) != null && terms.size() < 10000) {
+                if (ordinal++ % 10 == 0) {
+                    terms.add(new Term("TEXT", BytesRef.deepCopyOf(term)));
+                }
+            }
+            for (int i = 0; i < 100; i++) {
+                terms.add(new Term("TEXT", "absent" + i));
+            }
+        }
+
+        @Override
+        public Long call() throws IOException {
+            long sum = 0;
+            for (Term term : terms) {
+                sum += indexReader.docFreq(term);
+                sum += indexReader.totalTermFreq(term);
+            }
+            return sum;
+        }
+
+        @Override
+        public void close() throws IOException {
+            indexReader.close();
+        }
+    }
+
+    /**
+     * Builds a StandardAnalyzer index the way generateIndex does: parse, add, forceMerge(1)
+     * and commit.
+     *
+     * @param files    - Corpus files
+     * @param indexDir - Directory the index is written to
+     * @return number of documents indexed
+     * @throws IOException
+     */
+
+    public static int build(File[] files, File indexDir) throws IOException {
+        IndexWriterConfig iwc = new IndexWriterConfig(Version.LUCENE_4_10_0, new StandardAnalyzer());
+        iwc.setOpenMode(IndexWriterConfig.OpenMode.CREATE);
+        IndexWriter indexWriter = new IndexWriter(FSDirectory.open(indexDir), iwc);
+        int docs = 0;
+        indexMetrics metrics = new indexMetrics("benchmark");
+        for (File file : files) {
+            int added = generateIndex.indexFile(file, indexWriter, metrics, null, false, indexSchema.DEFAULT);
+            if (added < 0) {
+                indexWriter.rollback();
+                throw new IOException("Could not read " + file);
+            }
+            docs += added;
+        }
+        indexWriter.forceMerge(1);
+        indexWriter.commit();
+        indexWriter.close();
+        return docs;
+    }
+
+    private static int readDocuments(File[] files, List<String> texts) throws IOException {
+        int docs = 0;
+        corpusInput input = new corpusInput();
+        for (File file : files) {
+            trecDocumentStream stream = input.open(file);
+            try {
+                trecDocument doc;
+                while ((doc = stream.next()) != null) {
+                    docs++;
+                    if (texts != null && doc.text != null) {
+                        texts.add(doc.text);
+                    }
+                }
+            } finally {
+                stream.close();
+            }
+        }
+        return docs;
+    }
+}
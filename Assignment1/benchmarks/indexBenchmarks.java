@@ -0,0 +1,178 @@
+/**
+ * indexBenchmarks is the JMH benchmark suite for the indexing code. Each benchmark runs against
+ * synthetic corpora of several sizes (see syntheticCorpus) and measures one stage on its own:
+ *
+ *  1. extractDocuments - TREC document extraction as done by index(...)
+ *  2. tokenize         - tokenization of every document's TEXT with each of the
+ *                        indexComparison analyzers
+ *  3. buildIndex       - end-to-end IndexWriter build (parse, add, forceMerge(1), commit)
+ *  4. termStatistics   - docFreq/totalTermFreq lookups as made by getStats
+ *
+ * The work itself is prepared by the default package class <tt>benchmarkWorkloads</tt>. JMH
+ * refuses benchmarks in the default package, so this class lives in its own package and finds
+ * the workloads by name.
+ *
+ * Compile all sources together with jmh-core and jmh-generator-annprocess on the class path so
+ * that the harness is generated. The program usage is given below; any JMH option may be
+ * given, for example <tt>-p documents=10000</tt> or <tt>-rf json</tt>:
+ *
+ * <tt>java benchmarks.indexBenchmarks [JMH options] [Benchmark regexp]</tt>
+ *
+ */
+package benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.Closeable;
+import java.io.File;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.nio.file.Files;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class indexBenchmarks {
+
+    @State(Scope.Benchmark)
+    public static class corpusState {
+
+        @Param({"1000", "10000", "50000"})
+        public int documents;
+
+        File corpusDir;
+        File[] files;
+
+        @Setup(Level.Trial)
+        public void setUp() throws Exception {
+            corpusDir = Files.createTempDirectory("trec-corpus").toFile();
+            files = (File[]) workload("generateCorpus", corpusDir, documents);
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            deleteRecursively(corpusDir);
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class extractState {
+
+        Callable<?> extract;
+
+        @Setup(Level.Trial)
+        public void setUp(corpusState corpus) throws Exception {
+            extract = (Callable<?>) workload("extractDocuments", (Object) corpus.files);
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class tokenizeState {
+
+        @Param({"StandardAnalyzer", "SimpleAnalyzer", "StopAnalyzer", "KeywordAnalyzer", "trecAnalyzer"})
+        public String analyzer;
+
+        Callable<?> tokenize;
+
+        @Setup(Level.Trial)
+        public void setUp(corpusState corpus) throws Exception {
+            tokenize = (Callable<?>) workload("tokenize", corpus.files, analyzer);
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class buildState {
+
+        File indexRoot;
+        Callable<?> build;
+
+        @Setup(Level.Iteration)
+        public void setUp(corpusState corpus) throws Exception {
+            indexRoot = Files.createTempDirectory("trec-index").toFile();
+            build = (Callable<?>) workload("buildIndex", corpus.files, indexRoot);
+        }
+
+        @TearDown(Level.Iteration)
+        public void tearDown() {
+            deleteRecursively(indexRoot);
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class statsState {
+
+        File indexDir;
+        Callable<?> lookup;
+
+        @Setup(Level.Trial)
+        public void setUp(corpusState corpus) throws Exception {
+            indexDir = Files.createTempDirectory("trec-stats").toFile();
+            workload("build", corpus.files, indexDir);
+            lookup = (Callable<?>) workload("termStatistics", indexDir);
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws Exception {
+            ((Closeable) lookup).close();
+            deleteRecursively(indexDir);
+        }
+    }
+
+    @Benchmark
+    public Object extractDocuments(extractState state) throws Exception {
+        return state.extract.call();
+    }
+
+    @Benchmark
+    public Object tokenize(tokenizeState state) throws Exception {
+        return state.tokenize.call();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @Warmup(iterations = 1)
+    @Measurement(iterations = 3)
+    public Object buildIndex(buildState state) throws Exception {
+        return state.build.call();
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public Object termStatistics(statsState state) throws Exception {
+        return state.lookup.call();
+    }
+
+    static Object workload(String name, Object... args) throws Exception {
+        for (Method method : Class.forName("benchmarkWorkloads").getMethods()) {
+            if (method.getName().equals(name) && method.getParameterTypes().length == args.length) {
+                try {
+                    return method.invoke(null, args);
+                } catch (InvocationTargetException e) {
+                    throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+                }
+            }
+        }
+        throw new NoSuchMethodException("benchmarkWorkloads." + name);
+    }
+
+    static void deleteRecursively(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        file.delete();
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length == 0) {
+            args = new String[]{indexBenchmarks.class.getSimpleName()};
+        }
+        org.openjdk.jmh.Main.main(args);
+    }
+}
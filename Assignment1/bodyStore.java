@@ -0,0 +1,366 @@
+/**
+ * bodyStore keeps raw document bodies next to an index, outside of Lucene's stored fields, so
+ * that they neither take part in merges nor get read unless a body is asked for. Each body is
+ * deflated on its own and appended to <tt>bodies.dat</tt>; <tt>bodies.idx</tt> maps every
+ * DOCNO to the offset of its record. When a DOCNO is written again, the newer record wins.
+ *
+ * Records of replaced and removed DOCNOs stay in <tt>bodies.dat</tt> until a writer is closed
+ * with at least as many dead records as live ones; the live records are then copied to a new
+ * data file. The new data and offset files are written next to the old ones and moved into place
+ * afterwards; a store opened after a crash between the two moves finishes them first.
+ *
+ * The program usage is given below:
+ *
+ * <tt>java bodyStore <Index Directory> <DOCNO>...</tt>
+ *
+ */
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+public class bodyStore implements Closeable {
+
+    public static final String DATA_FILE = "bodies.dat";
+    public static final String INDEX_FILE = "bodies.idx";
+    private static final String COMPACT_SUFFIX = ".compact";
+    private static final int VERSION = 2;
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final File indexDir;
+    private final Map<String, Long> offsets;
+    private final OutputStream data;
+    private final FileChannel channel;
+    private final Deflater deflater;
+    private long position;
+    // records in the data file that no DOCNO points to any more
+    private long deadRecords;
+    private byte[] buffer = new byte[1 << 16];
+
+    private bodyStore(File indexDir, Map<String, Long> offsets, long deadRecords, OutputStream data, FileChannel channel,
+                      long position) {
+        this.indexDir = indexDir;
+        this.offsets = offsets;
+        this.deadRecords = deadRecords;
+        this.data = data;
+        this.channel = channel;
+        this.position = position;
+        this.deflater = data == null ? null : new Deflater(Deflater.BEST_SPEED);
+    }
+
+    /**
+     * Opens the store of an index for writing.
+     *
+     * @param indexDir - Directory of the index
+     * @param append   - Keep the bodies already in the store; otherwise it starts empty
+     * @return the store
+     * @throws IOException
+     */
+
+    public static bodyStore create(File indexDir, boolean append) throws IOException {
+        indexDir.mkdirs();
+        finishCompaction(indexDir);
+        File dataFile = new File(indexDir, DATA_FILE);
+        Map<String, Long> offsets = new HashMap<String, Long>();
+        long deadRecords = append && dataFile.exists() ? readOffsets(indexDir, offsets) : 0;
+        long position = append && dataFile.exists() ? dataFile.length() : 0;
+        OutputStream data = new BufferedOutputStream(new FileOutputStream(dataFile, append), 1 << 16);
+        return new bodyStore(indexDir, offsets, deadRecords, data, null, position);
+    }
+
+    /**
+     * Opens the store of an index for reading.
+     *
+     * @param indexDir - Directory of the index
+     * @return the store, or <tt>null</tt> if the index has none
+     * @throws IOException
+     */
+
+    public static bodyStore open(File indexDir) throws IOException {
+        finishCompaction(indexDir);
+        File dataFile = new File(indexDir, DATA_FILE);
+        if (!dataFile.exists()) {
+            return null;
+        }
+        Map<String, Long> offsets = new HashMap<String, Long>();
+        long deadRecords = readOffsets(indexDir, offsets);
+        return new bodyStore(indexDir, offsets, deadRecords, null, FileChannel.open(dataFile.toPath(), StandardOpenOption.READ), 0);
+    }
+
+    // returns the number of dead records
+    private static long readOffsets(File indexDir, Map<String, Long> offsets) throws IOException {
+        File file = new File(indexDir, INDEX_FILE);
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            int version = in.readInt();
+            if (version != 1 && version != VERSION) {
+                throw new IOException("Unsupported body store version " + version + " in " + file);
+            }
+            int count = in.readInt();
+            long deadRecords = version > 1 ? in.readLong() : 0;
+            for (int i = 0; i < count; i++) {
+                offsets.put(in.readUTF(), in.readLong());
+            }
+            return deadRecords;
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * A compaction writes <tt>bodies.dat.compact</tt> and <tt>bodies.idx.compact</tt> and then
+     * moves the data file into place before the offset file. If only the offset file is left, the
+     * data file was moved and the offset file is moved after it; if both are left, the old store
+     * is still intact and the new files are dropped.
+     */
+
+    private static void finishCompaction(File indexDir) throws IOException {
+        File compactData = new File(indexDir, DATA_FILE + COMPACT_SUFFIX);
+        File compactIndex = new File(indexDir, INDEX_FILE + COMPACT_SUFFIX);
+        if (compactData.exists()) {
+            compactData.delete();
+            compactIndex.delete();
+        } else if (compactIndex.exists()) {
+            Files.move(compactIndex.toPath(), new File(indexDir, INDEX_FILE).toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     *
+     * @param docno - External ID of the document, normalized with {@link trecDocument#normalizeDocno}
+     * @param body  - Body to be stored
+     * @throws IOException
+     */
+
+    public synchronized void put(String docno, String body) throws IOException {
+        byte[] raw = body.getBytes(UTF8);
+        deflater.reset();
+        deflater.setInput(raw);
+        deflater.finish();
+        if (buffer.length < raw.length + 64) {
+            buffer = new byte[raw.length + 64];
+        }
+        int length = 0;
+        while (!deflater.finished()) {
+            if (length == buffer.length) {
+                byte[] larger = new byte[buffer.length * 2];
+                System.arraycopy(buffer, 0, larger, 0, length);
+                buffer = larger;
+            }
+            length += deflater.deflate(buffer, length, buffer.length - length);
+        }
+        writeInt(length);
+        writeInt(raw.length);
+        data.write(buffer, 0, length);
+        if (offsets.put(trecDocument.normalizeDocno(docno), position) != null) {
+            deadRecords++;
+        }
+        position += 8 + length;
+    }
+
+    /**
+     * Drops the body of a deleted document. Its record stays in the data file until the store is
+     * compacted.
+     *
+     * @param docno - External ID of the document
+     */
+
+    public synchronized void remove(String docno) {
+        if (offsets.remove(trecDocument.normalizeDocno(docno)) != null) {
+            deadRecords++;
+        }
+    }
+
+    private void writeInt(int value) throws IOException {
+        data.write(value >>> 24);
+        data.write(value >>> 16);
+        data.write(value >>> 8);
+        data.write(value);
+    }
+
+    /**
+     *
+     * @param docno - External ID of the document, normalized with {@link trecDocument#normalizeDocno}
+     * @return the body, or <tt>null</tt> if the store has none for <tt>docno</tt>
+     * @throws IOException
+     */
+
+    public String get(String docno) throws IOException {
+        Long offset = offsets.get(trecDocument.normalizeDocno(docno));
+        if (offset == null) {
+            return null;
+        }
+        ByteBuffer header = ByteBuffer.allocate(8);
+        readFully(channel, header, offset);
+        int length = header.getInt(0);
+        int rawLength = header.getInt(4);
+        ByteBuffer compressed = ByteBuffer.allocate(length);
+        readFully(channel, compressed, offset + 8);
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(compressed.array());
+            byte[] raw = new byte[rawLength];
+            int done = 0;
+            while (done < rawLength && !inflater.finished()) {
+                done += inflater.inflate(raw, done, rawLength - done);
+            }
+            return new String(raw, 0, done, UTF8);
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupt body record for " + docno, e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    private void readFully(FileChannel channel, ByteBuffer target, long offset) throws IOException {
+        while (target.hasRemaining()) {
+            if (channel.read(target, offset + target.position()) < 0) {
+                throw new EOFException("Truncated " + DATA_FILE + " in " + indexDir);
+            }
+        }
+    }
+
+    public Set<String> docnos() {
+        return Collections.unmodifiableSet(offsets.keySet());
+    }
+
+    public int size() {
+        return offsets.size();
+    }
+
+    /**
+     *
+     * @param indexDir - Directory of the index
+     * @return total size in bytes of the store files, 0 if the index has no store
+     */
+
+    public static long sizeOf(File indexDir) {
+        return new File(indexDir, DATA_FILE).length() + new File(indexDir, INDEX_FILE).length();
+    }
+
+    /**
+     * Makes everything put so far durable: flushes the records and rewrites the offset file.
+     *
+     * @throws IOException
+     */
+
+    public synchronized void flush() throws IOException {
+        data.flush();
+        writeOffsets();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (channel != null) {
+            channel.close();
+            return;
+        }
+        data.close();
+        deflater.end();
+        if (deadRecords > 0 && deadRecords >= offsets.size()) {
+            compact();
+        } else {
+            writeOffsets();
+        }
+    }
+
+    private void writeOffsets() throws IOException {
+        File tmp = new File(indexDir, INDEX_FILE + ".tmp");
+        writeOffsets(tmp, offsets, deadRecords);
+        Files.move(tmp.toPath(), new File(indexDir, INDEX_FILE).toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private static void writeOffsets(File file, Map<String, Long> offsets, long deadRecords) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+        try {
+            out.writeInt(VERSION);
+            out.writeInt(offsets.size());
+            out.writeLong(deadRecords);
+            for (Map.Entry<String, Long> entry : offsets.entrySet()) {
+                out.writeUTF(entry.getKey());
+                out.writeLong(entry.getValue());
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    // copies the live records to a new data file, in the order of their old offsets
+    private void compact() throws IOException {
+        File dataFile = new File(indexDir, DATA_FILE);
+        File compactData = new File(indexDir, DATA_FILE + COMPACT_SUFFIX);
+        File compactIndex = new File(indexDir, INDEX_FILE + COMPACT_SUFFIX);
+        List<Map.Entry<String, Long>> live = new ArrayList<Map.Entry<String, Long>>(offsets.entrySet());
+        Collections.sort(live, new Comparator<Map.Entry<String, Long>>() {
+            @Override
+            public int compare(Map.Entry<String, Long> a, Map.Entry<String, Long> b) {
+                return a.getValue().compareTo(b.getValue());
+            }
+        });
+        Map<String, Long> compacted = new HashMap<String, Long>(offsets.size() * 2);
+        FileChannel source = FileChannel.open(dataFile.toPath(), StandardOpenOption.READ);
+        try {
+            OutputStream out = new BufferedOutputStream(new FileOutputStream(compactData), 1 << 16);
+            try {
+                ByteBuffer header = ByteBuffer.allocate(8);
+                long written = 0;
+                for (Map.Entry<String, Long> entry : live) {
+                    header.clear();
+                    readFully(source, header, entry.getValue());
+                    ByteBuffer record = ByteBuffer.allocate(8 + header.getInt(0));
+                    readFully(source, record, entry.getValue());
+                    out.write(record.array());
+                    compacted.put(entry.getKey(), written);
+                    written += record.capacity();
+                }
+            } finally {
+                out.close();
+            }
+        } finally {
+            source.close();
+        }
+        writeOffsets(compactIndex, compacted, 0);
+        Files.move(compactData.toPath(), dataFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        Files.move(compactIndex.toPath(), new File(indexDir, INDEX_FILE).toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    public static void main(String[] args) {
+        if (args.length < 2) {
+            System.out.println("Usage: java " + bodyStore.class.getName() + " <Index Directory> <DOCNO>...");
+            System.exit(-1);
+        }
+        bodyStore store = null;
+        try {
+            store = open(new File(args[0]));
+            if (store == null) {
+                System.out.println("No body store in " + args[0]);
+                System.exit(-1);
+            }
+            for (int i = 1; i < args.length; i++) {
+                String body = store.get(args[i]);
+                System.out.println("**************************************************************************");
+                System.out.println(args[i] + (body == null ? ": not found" : ""));
+                if (body != null) {
+                    System.out.println(body);
+                }
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            try {
+                if (store != null) {
+                    store.close();
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+}
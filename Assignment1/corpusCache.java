@@ -0,0 +1,314 @@
+/**
+ * corpusCache keeps every corpus file in a pre-parsed binary form, so that indexing runs after
+ * the first one read documents without scanning any TREC markup. Each source file gets a store
+ * <tt>NAME.docs</tt> in the cache directory: one record per document holding DOCNO, HEAD,
+ * BYLINE, DATELINE and TEXT as length-prefixed UTF-8 (length -1 for a missing field), followed
+ * by a trailer. Documents are only ever read in order, so there is no offset table. Stores are
+ * read through memory mappings of at most 1 GB each, which are moved along the file as the
+ * records are read, so a store may be larger than the 2 GB a single mapping can hold.
+ *
+ * The trailer records the size and modification time of the source file; a store whose source
+ * has changed is ignored and rewritten the next time the file is read. Stores are written while
+ * the source is parsed, to a temporary file that only replaces the store once the whole file
+ * has been read, so a failed run never leaves a partial store behind. The program usage is
+ * given below; it converts the whole corpus ahead of time:
+ *
+ * <tt>java corpusCache <Corpus Directory> <Cache Directory></tt>
+ *
+ */
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashSet;
+import java.util.Set;
+
+public class corpusCache {
+
+    public static final String SUFFIX = ".docs";
+    private static final int MAGIC = 0x54524543;
+    private static final int VERSION = 2;
+    private static final int TRAILER_SIZE = 8 + 8 + 4 + 4 + 4;
+    private static final long WINDOW_SIZE = 1L << 30;
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final File cacheDir;
+
+    public corpusCache(File cacheDir) throws IOException {
+        if (!cacheDir.isDirectory() && !cacheDir.mkdirs()) {
+            throw new IOException("Cannot create " + cacheDir);
+        }
+        this.cacheDir = cacheDir;
+    }
+
+    public File storeFile(File source) {
+        return new File(cacheDir, source.getName() + SUFFIX);
+    }
+
+    /**
+     *
+     * @param source - Corpus file
+     * @return true if the store of the file exists and was written from its current content
+     */
+
+    public boolean isValid(File source) {
+        File store = storeFile(source);
+        if (store.length() < TRAILER_SIZE) {
+            return false;
+        }
+        try {
+            RandomAccessFile in = new RandomAccessFile(store, "r");
+            try {
+                in.seek(store.length() - TRAILER_SIZE);
+                long sourceLength = in.readLong();
+                long sourceModified = in.readLong();
+                in.readInt();
+                int version = in.readInt();
+                int magic = in.readInt();
+                return magic == MAGIC && version == VERSION && sourceLength == source.length()
+                        && sourceModified == source.lastModified();
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     *
+     * @param source - Corpus file whose store is valid (see {@link #isValid})
+     * @return the documents of the store, read through memory mappings
+     * @throws IOException
+     */
+
+    public trecDocumentStream open(File source) throws IOException {
+        FileChannel channel = FileChannel.open(storeFile(source).toPath(), StandardOpenOption.READ);
+        try {
+            return new storeStream(channel);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Passes the documents of <tt>parser</tt> through and writes them to the store of
+     * <tt>source</tt> on the way. The store is completed when the parser runs out of documents.
+     *
+     * @param source - Corpus file being parsed
+     * @param parser - Documents parsed from the file
+     * @return a stream with the same documents
+     * @throws IOException
+     */
+
+    public trecDocumentStream writeThrough(File source, trecDocumentStream parser) throws IOException {
+        return new writingStream(source, parser);
+    }
+
+    /**
+     * Deletes the stores of files that are no longer in the corpus.
+     *
+     * @param dataFiles - Current corpus files
+     * @return number of stores deleted
+     */
+
+    public int prune(File[] dataFiles) {
+        Set<String> current = new HashSet<String>();
+        for (File file : dataFiles) {
+            current.add(storeFile(file).getName());
+        }
+        int deleted = 0;
+        File[] stores = cacheDir.listFiles();
+        for (File store : stores == null ? new File[0] : stores) {
+            if (store.getName().endsWith(SUFFIX) && !current.contains(store.getName()) && store.delete()) {
+                deleted++;
+            }
+        }
+        return deleted;
+    }
+
+    private static class storeStream implements trecDocumentStream {
+
+        private final FileChannel channel;
+        private final long dataEnd;
+        private final int documents;
+        private MappedByteBuffer window;
+        // offset of window[0] in the store
+        private long windowStart;
+        private int next;
+        private byte[] buffer = new byte[64 * 1024];
+
+        storeStream(FileChannel channel) throws IOException {
+            this.channel = channel;
+            this.dataEnd = channel.size() - TRAILER_SIZE;
+            ByteBuffer trailer = ByteBuffer.allocate(TRAILER_SIZE);
+            while (trailer.hasRemaining()) {
+                if (channel.read(trailer, dataEnd + trailer.position()) < 0) {
+                    throw new EOFException("Truncated store");
+                }
+            }
+            this.documents = trailer.getInt(16);
+            map(0, 0);
+        }
+
+        // maps the window that starts at <tt>start</tt> and holds at least <tt>needed</tt> bytes
+        private void map(long start, int needed) throws IOException {
+            long size = Math.min(Math.max(WINDOW_SIZE, needed), dataEnd - start);
+            if (size < needed) {
+                throw new EOFException("Truncated store");
+            }
+            window = channel.map(FileChannel.MapMode.READ_ONLY, start, size);
+            windowStart = start;
+        }
+
+        private void ensure(int needed) throws IOException {
+            if (window.remaining() < needed) {
+                map(windowStart + window.position(), needed);
+            }
+        }
+
+        @Override
+        public trecDocument next() throws IOException {
+            if (next == documents) {
+                return null;
+            }
+            next++;
+            return new trecDocument(readField(), readField(), readField(), readField(), readField());
+        }
+
+        private String readField() throws IOException {
+            ensure(4);
+            int length = window.getInt();
+            if (length < 0) {
+                return null;
+            }
+            ensure(length);
+            if (buffer.length < length) {
+                buffer = new byte[Math.max(length, buffer.length * 2)];
+            }
+            window.get(buffer, 0, length);
+            return new String(buffer, 0, length, UTF8);
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+
+    private class writingStream implements trecDocumentStream {
+
+        private final File source;
+        private final long sourceLength;
+        private final long sourceModified;
+        private final trecDocumentStream parser;
+        private final File tmp;
+        private final DataOutputStream out;
+        private int documents;
+        private boolean complete;
+
+        writingStream(File source, trecDocumentStream parser) throws IOException {
+            this.source = source;
+            // taken before parsing starts, so a change made during the run invalidates the store
+            this.sourceLength = source.length();
+            this.sourceModified = source.lastModified();
+            this.parser = parser;
+            this.tmp = new File(cacheDir, source.getName() + SUFFIX + ".tmp");
+            this.out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), 64 * 1024));
+        }
+
+        @Override
+        public trecDocument next() throws IOException {
+            trecDocument doc = parser.next();
+            if (doc == null) {
+                finish();
+                return null;
+            }
+            documents++;
+            writeField(doc.docno);
+            writeField(doc.head);
+            writeField(doc.byline);
+            writeField(doc.dateline);
+            writeField(doc.text);
+            return doc;
+        }
+
+        private void writeField(String value) throws IOException {
+            if (value == null) {
+                out.writeInt(-1);
+                return;
+            }
+            byte[] bytes = value.getBytes(UTF8);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+
+        private void finish() throws IOException {
+            if (complete) {
+                return;
+            }
+            out.writeLong(sourceLength);
+            out.writeLong(sourceModified);
+            out.writeInt(documents);
+            out.writeInt(VERSION);
+            out.writeInt(MAGIC);
+            out.close();
+            Files.move(tmp.toPath(), storeFile(source).toPath(), StandardCopyOption.REPLACE_EXISTING);
+            complete = true;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                parser.close();
+            } finally {
+                if (!complete) {
+                    out.close();
+                    tmp.delete();
+                }
+            }
+        }
+    }
+
+    public static void main(String[] args) {
+        if (args.length < 2) {
+            System.out.println("Usage: java " + corpusCache.class.getName() + " <Corpus Directory> <Cache Directory>");
+            System.exit(-1);
+        }
+        try {
+            corpusCache cache = new corpusCache(new File(args[1]));
+            corpusInput input = new corpusInput();
+            input.cache = cache;
+            File[] dataFiles = generateIndex.listDataFiles(args[0]);
+            long start = System.nanoTime();
+            int converted = 0;
+            long documents = 0;
+            for (File file : dataFiles) {
+                if (cache.isValid(file)) {
+                    continue;
+                }
+                trecDocumentStream stream = input.open(file);
+                try {
+                    while (stream.next() != null) {
+                        documents++;
+                    }
+                } finally {
+                    stream.close();
+                }
+                converted++;
+            }
+            int pruned = cache.prune(dataFiles);
+            System.out.println("**************************************************************************");
+            System.out.println(String.format("Converted %d of %d files (%d documents) in %.2f sec, %d stale store(s) removed",
+                    converted, dataFiles.length, documents, (System.nanoTime() - start) / 1e9, pruned));
+            System.out.println("**************************************************************************");
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,255 @@
+/**
+ * corpusInput opens corpus files for parsing and keeps count of what was read. Besides plain
+ * <tt>.trectext</tt> files it reads <tt>.trectext.gz</tt> files and tar archives
+ * (<tt>.tar</tt>, <tt>.tar.gz</tt>, <tt>.tgz</tt>) of TREC files directly as streams, so the
+ * corpus never has to be unpacked to disk first. Decompression runs on a
+ * {@link readAheadInputStream} thread and overlaps with parsing and indexing.
+ *
+ * With a {@link corpusCache} set, files whose pre-parsed store is up to date are read from the
+ * store instead, and all other files are written to the cache as they are parsed.
+ *
+ * All counters are thread-safe, one instance can be shared by every indexing thread. Tar
+ * archives are read with Apache Commons Compress.
+ *
+ */
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+
+public class corpusInput {
+
+    private static final int CHUNK_SIZE = 256 * 1024;
+    private static final int CHUNKS_AHEAD = 8;
+
+    public final AtomicLong plainBytes = new AtomicLong();
+    public final AtomicLong compressedBytes = new AtomicLong();
+    public final AtomicLong uncompressedBytes = new AtomicLong();
+    public final AtomicLong decompressNanos = new AtomicLong();
+    public final AtomicLong ioNanos = new AtomicLong();
+    public final AtomicInteger archiveEntries = new AtomicInteger();
+    public final AtomicInteger cachedFiles = new AtomicInteger();
+    public final AtomicLong cachedBytes = new AtomicLong();
+    public corpusCache cache;
+
+    /**
+     *
+     * @param name - File name
+     * @return true if the file is a corpus file that {@link #open} can read
+     */
+
+    public static boolean accepts(String name) {
+        String lower = name.toLowerCase();
+        return lower.endsWith(".trectext") || lower.endsWith(".trectext.gz") || isTar(lower);
+    }
+
+    private static boolean isTar(String lower) {
+        return lower.endsWith(".tar") || lower.endsWith(".tar.gz") || lower.endsWith(".tgz");
+    }
+
+    private static boolean isGzip(String lower) {
+        return lower.endsWith(".gz") || lower.endsWith(".tgz");
+    }
+
+    /**
+     *
+     * @param file - Corpus file accepted by {@link #accepts}
+     * @return the documents of the file, or of every TREC file in it if it is an archive
+     * @throws IOException
+     */
+
+    public trecDocumentStream open(File file) throws IOException {
+        return open(file, null);
+    }
+
+    /**
+     *
+     * @param file - Corpus file accepted by {@link #accepts}
+     * @param hash - Receives the raw bytes of the file as they are read, may be null
+     * @return the documents of the file, or of every TREC file in it if it is an archive
+     * @throws IOException
+     */
+
+    public trecDocumentStream open(File file, corpusManifest.contentHash hash) throws IOException {
+        if (cache == null) {
+            return parse(file, hash);
+        }
+        if (cache.isValid(file)) {
+            cachedFiles.incrementAndGet();
+            cachedBytes.addAndGet(cache.storeFile(file).length());
+            if (hash != null) {
+                hash.cached = true;
+            }
+            return cache.open(file);
+        }
+        return cache.writeThrough(file, parse(file, hash));
+    }
+
+    private trecDocumentStream parse(File file, corpusManifest.contentHash hash) throws IOException {
+        String lower = file.getName().toLowerCase();
+        InputStream in = new FileInputStream(file);
+        if (hash != null) {
+            in = hash.wrap(in);
+        }
+        if (isGzip(lower)) {
+            compressedBytes.addAndGet(file.length());
+            in = new readAheadInputStream(counting(new GZIPInputStream(in, 64 * 1024)), CHUNK_SIZE, CHUNKS_AHEAD, decompressNanos);
+        } else {
+            plainBytes.addAndGet(file.length());
+            if (isTar(lower)) {
+                in = counting(in);
+            }
+        }
+        in = timed(in);
+        if (isTar(lower)) {
+            return new tarDocumentStream(new BufferedInputStream(in, 64 * 1024), this);
+        }
+        return new trecParser(new InputStreamReader(in));
+    }
+
+    /**
+     * Adds the time the parser spends waiting for bytes to {@link #ioNanos}.
+     */
+
+    private InputStream timed(InputStream in) {
+        return new FilterInputStream(in) {
+            @Override
+            public int read() throws IOException {
+                long start = System.nanoTime();
+                int b = super.read();
+                ioNanos.addAndGet(System.nanoTime() - start);
+                return b;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                long start = System.nanoTime();
+                int n = super.read(b, off, len);
+                ioNanos.addAndGet(System.nanoTime() - start);
+                return n;
+            }
+        };
+    }
+
+    private InputStream counting(InputStream in) {
+        return new FilterInputStream(in) {
+            @Override
+            public int read() throws IOException {
+                int b = super.read();
+                if (b != -1) {
+                    uncompressedBytes.incrementAndGet();
+                }
+                return b;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                int n = super.read(b, off, len);
+                if (n > 0) {
+                    uncompressedBytes.addAndGet(n);
+                }
+                return n;
+            }
+        };
+    }
+
+    /**
+     * Times the extract-then-index workflow's first step: unpacks every compressed file and
+     * archive to a scratch directory, then deletes the extracted files again.
+     *
+     * @param dataFiles  - Corpus files
+     * @param scratchDir - Directory the files are extracted to
+     * @return time taken in nanoseconds
+     * @throws IOException
+     */
+
+    public static long measureExtraction(File[] dataFiles, File scratchDir) throws IOException {
+        List<File> extracted = new ArrayList<File>();
+        if (!scratchDir.isDirectory() && !scratchDir.mkdirs()) {
+            throw new IOException("Cannot create " + scratchDir);
+        }
+        long start = System.nanoTime();
+        byte[] buffer = new byte[64 * 1024];
+        for (File file : dataFiles) {
+            String lower = file.getName().toLowerCase();
+            if (!isGzip(lower) && !isTar(lower)) {
+                continue;
+            }
+            InputStream in = new BufferedInputStream(new FileInputStream(file), 64 * 1024);
+            try {
+                if (isGzip(lower)) {
+                    in = new GZIPInputStream(in, 64 * 1024);
+                }
+                if (isTar(lower)) {
+                    TarArchiveInputStream tar = new TarArchiveInputStream(in);
+                    in = tar;
+                    TarArchiveEntry entry;
+                    while ((entry = tar.getNextTarEntry()) != null) {
+                        if (entry.isFile()) {
+                            File target = new File(scratchDir, extracted.size() + "-" + new File(entry.getName()).getName());
+                            copy(tar, target, buffer);
+                            extracted.add(target);
+                        }
+                    }
+                } else {
+                    File target = new File(scratchDir, extracted.size() + "-" + file.getName().replaceAll("(?i)\\.gz$", ""));
+                    copy(in, target, buffer);
+                    extracted.add(target);
+                }
+            } finally {
+                in.close();
+            }
+        }
+        long nanos = System.nanoTime() - start;
+        for (File file : extracted) {
+            file.delete();
+        }
+        return nanos;
+    }
+
+    private static void copy(InputStream in, File target, byte[] buffer) throws IOException {
+        OutputStream out = new FileOutputStream(target);
+        try {
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Prints how much was read and what streaming saved compared with unpacking first.
+     *
+     * @param extractNanos - Measured extraction time, or a negative value if it was not measured
+     */
+
+    public void printReport(long extractNanos) {
+        if (compressedBytes.get() == 0 && archiveEntries.get() == 0 && cache == null) {
+            return;
+        }
+        double mb = 1024.0 * 1024.0;
+        System.out.print("\n");
+        System.out.println("**************************************************************************");
+        if (cache != null) {
+            System.out.println(String.format("Read from the corpus cache without parsing: %d files, %.2f MB of stores",
+                    cachedFiles.get(), cachedBytes.get() / mb));
+        }
+        System.out.println(String.format("Plain input read: %.2f MB, compressed input read: %.2f MB, archive entries: %d",
+                plainBytes.get() / mb, compressedBytes.get() / mb, archiveEntries.get()));
+        System.out.println(String.format("Streamed after decompression: %.2f MB, decompression time (overlapped with indexing): %.2f sec",
+                uncompressedBytes.get() / mb, decompressNanos.get() / 1e9));
+        System.out.println(String.format("Disk space not used for extracted files: %.2f MB", uncompressedBytes.get() / mb));
+        if (extractNanos >= 0) {
+            System.out.println(String.format("Extract-then-index would first spend %.2f sec unpacking before indexing could start",
+                    extractNanos / 1e9));
+        }
+        System.out.println("**************************************************************************");
+    }
+}
@@ -0,0 +1,367 @@
+/**
+ * corpusManifest records which corpus files an index was built from: the size, modification
+ * time and content hash of every file, together with the DOCNOs of the documents it holds. It is
+ * stored as <tt>corpus.manifest</tt> next to the index files and lets an incremental run find the
+ * files that were added, changed or removed since the last run.
+ *
+ * A file whose size and modification time are unchanged is taken as unchanged without reading
+ * it. Otherwise its SHA-1 is compared with the recorded one, so a file that was only touched is
+ * not re-indexed. The SHA-1 of an indexed file is computed by a {@link contentHash} from the
+ * bytes the parser reads anyway, so recording a file costs no extra pass over it. A file served
+ * from the {@link corpusCache} is not read at all; it keeps the hash recorded for it before, or
+ * none, in which case touching it makes the next incremental run re-index it.
+ *
+ * The manifest is saved before the index commit it describes, and that commit records the
+ * generation of the manifest in its user data (see {@link #saveForCommit}). A crash between the
+ * two leaves a manifest that is newer than the index, which {@link #matches} detects.
+ *
+ */
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+
+public class corpusManifest {
+
+    public static final String FILE_NAME = "corpus.manifest";
+    public static final String GENERATION = "manifestGeneration";
+    private static final int VERSION = 2;
+
+    private final Map<String, Entry> entries = new TreeMap<String, Entry>();
+    private final Map<String, String> docnoOwners = new HashMap<String, String>();
+    private long generation;
+
+    private static class Entry {
+        long size;
+        long lastModified;
+        String hash = "";
+        Set<String> docnos = new LinkedHashSet<String>();
+    }
+
+    /**
+     *
+     * @param indexDir - Directory holding the index and its manifest
+     * @return the manifest stored in the directory, or an empty manifest if there is none
+     * @throws IOException
+     */
+
+    public static corpusManifest load(File indexDir) throws IOException {
+        corpusManifest manifest = new corpusManifest();
+        File file = new File(indexDir, FILE_NAME);
+        if (!file.exists()) {
+            return manifest;
+        }
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            int version = in.readInt();
+            if (version != 1 && version != VERSION) {
+                throw new IOException("Unsupported manifest version " + version + " in " + file);
+            }
+            if (version > 1) {
+                manifest.generation = in.readLong();
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                String name = in.readUTF();
+                Entry entry = new Entry();
+                entry.size = in.readLong();
+                entry.lastModified = in.readLong();
+                entry.hash = in.readUTF();
+                int docs = in.readInt();
+                for (int j = 0; j < docs; j++) {
+                    String docno = in.readUTF();
+                    entry.docnos.add(docno);
+                    manifest.docnoOwners.put(docno, name);
+                }
+                manifest.entries.put(name, entry);
+            }
+        } finally {
+            in.close();
+        }
+        return manifest;
+    }
+
+    /**
+     * Writes the manifest to a temporary file first and then moves it over the old one, so a
+     * crash never leaves a half written manifest behind.
+     *
+     * @param indexDir - Directory holding the index
+     * @throws IOException
+     */
+
+    public synchronized void save(File indexDir) throws IOException {
+        File tmp = new File(indexDir, FILE_NAME + ".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+        try {
+            out.writeInt(VERSION);
+            out.writeLong(generation);
+            out.writeInt(entries.size());
+            for (Map.Entry<String, Entry> e : entries.entrySet()) {
+                Entry entry = e.getValue();
+                out.writeUTF(e.getKey());
+                out.writeLong(entry.size);
+                out.writeLong(entry.lastModified);
+                out.writeUTF(entry.hash);
+                out.writeInt(entry.docnos.size());
+                for (String docno : entry.docnos) {
+                    out.writeUTF(docno);
+                }
+            }
+        } finally {
+            out.close();
+        }
+        Files.move(tmp.toPath(), new File(indexDir, FILE_NAME).toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Saves the manifest as the next generation, before the index commit it belongs to.
+     *
+     * @param indexDir - Directory holding the index
+     * @return the generation, to be stored under {@link #GENERATION} in the commit user data
+     * @throws IOException
+     */
+
+    public synchronized String saveForCommit(File indexDir) throws IOException {
+        generation++;
+        save(indexDir);
+        return Long.toString(generation);
+    }
+
+    /**
+     *
+     * @param commitData - User data of the last commit of the index
+     * @return false if the commit records another generation than this manifest, which happens
+     *         when the manifest was saved but the commit after it never happened
+     */
+
+    public synchronized boolean matches(Map<String, String> commitData) {
+        String committed = commitData.get(GENERATION);
+        return committed == null || Long.parseLong(committed) == generation;
+    }
+
+    /**
+     *
+     * @param dataFiles - Current corpus files
+     * @return the files that are new or whose content changed since they were recorded
+     * @throws IOException
+     */
+
+    public synchronized List<File> changedFiles(File[] dataFiles) throws IOException {
+        List<File> changed = new ArrayList<File>();
+        for (File file : dataFiles) {
+            Entry entry = entries.get(file.getName());
+            if (entry == null) {
+                changed.add(file);
+            } else if (entry.size != file.length() || entry.lastModified != file.lastModified()) {
+                if (entry.hash.length() > 0 && entry.hash.equals(hash(file))) {
+                    entry.size = file.length();
+                    entry.lastModified = file.lastModified();
+                } else {
+                    changed.add(file);
+                }
+            }
+        }
+        return changed;
+    }
+
+    /**
+     *
+     * @param dataFiles - Current corpus files
+     * @return the names of recorded files that are no longer in the corpus
+     */
+
+    public synchronized List<String> removedFiles(File[] dataFiles) {
+        Set<String> current = new HashSet<String>();
+        for (File file : dataFiles) {
+            current.add(file.getName());
+        }
+        List<String> removed = new ArrayList<String>();
+        for (String name : entries.keySet()) {
+            if (!current.contains(name)) {
+                removed.add(name);
+            }
+        }
+        return removed;
+    }
+
+    /**
+     *
+     * @param names - Names of recorded files
+     * @return the DOCNOs recorded for those files
+     */
+
+    public synchronized List<String> docnos(Collection<String> names) {
+        List<String> docnos = new ArrayList<String>();
+        for (String name : names) {
+            Entry entry = entries.get(name);
+            if (entry != null) {
+                docnos.addAll(entry.docnos);
+            }
+        }
+        return docnos;
+    }
+
+    /**
+     * Records the current state of a file after it has been indexed. DOCNOs that moved here
+     * from another file are taken off that file's list.
+     *
+     * @param file   - Corpus file that was indexed
+     * @param docnos - DOCNOs of the documents indexed from it
+     * @param hash   - SHA-1 of the file from {@link contentHash#finish}, or null if it was not read
+     */
+
+    public synchronized void update(File file, Collection<String> docnos, String hash) {
+        Entry previous = entries.get(file.getName());
+        if (hash == null) {
+            hash = previous != null && previous.size == file.length() && previous.lastModified == file.lastModified()
+                    ? previous.hash : "";
+        }
+        remove(file.getName());
+        Entry entry = new Entry();
+        entry.size = file.length();
+        entry.lastModified = file.lastModified();
+        entry.hash = hash;
+        for (String docno : docnos) {
+            String owner = docnoOwners.put(docno, file.getName());
+            if (owner != null && !owner.equals(file.getName()) && entries.containsKey(owner)) {
+                entries.get(owner).docnos.remove(docno);
+            }
+            entry.docnos.add(docno);
+        }
+        entries.put(file.getName(), entry);
+    }
+
+    /**
+     * Adds the files recorded in another manifest, such as the manifest of a shard that is merged
+     * into this index.
+     *
+     * @param other - Manifest whose files are added
+     */
+
+    public synchronized void addAll(corpusManifest other) {
+        synchronized (other) {
+            for (Map.Entry<String, Entry> e : other.entries.entrySet()) {
+                entries.put(e.getKey(), e.getValue());
+                for (String docno : e.getValue().docnos) {
+                    docnoOwners.put(docno, e.getKey());
+                }
+            }
+        }
+    }
+
+    public synchronized void remove(String name) {
+        Entry entry = entries.remove(name);
+        if (entry != null) {
+            for (String docno : entry.docnos) {
+                if (name.equals(docnoOwners.get(docno))) {
+                    docnoOwners.remove(docno);
+                }
+            }
+        }
+    }
+
+    static String hash(File file) throws IOException {
+        return new contentHash(file).finish();
+    }
+
+    /**
+     * SHA-1 of a corpus file, fed by the stream the file is parsed from (see
+     * {@link corpusInput#open(File, contentHash)}). Bytes the parser never reads, such as the
+     * padding at the end of a tar archive, are read from the file when the hash is finished.
+     * The stream may be read on a read-ahead thread; {@link #finish} must only be called once
+     * the parser has reached the end.
+     */
+
+    public static class contentHash {
+
+        private final File file;
+        private final MessageDigest digest;
+        private long position;
+        // set when the documents came from the corpus cache and the file itself was not read
+        boolean cached;
+
+        public contentHash(File file) throws IOException {
+            this.file = file;
+            try {
+                this.digest = MessageDigest.getInstance("SHA-1");
+            } catch (NoSuchAlgorithmException e) {
+                throw new IOException(e);
+            }
+        }
+
+        /**
+         *
+         * @param in - Stream over the raw bytes of the file, from the start
+         * @return a stream that adds every byte read from <tt>in</tt> to the hash
+         */
+
+        InputStream wrap(InputStream in) {
+            return new FilterInputStream(in) {
+                @Override
+                public int read() throws IOException {
+                    int b = super.read();
+                    if (b != -1) {
+                        digest.update((byte) b);
+                        position++;
+                    }
+                    return b;
+                }
+
+                @Override
+                public int read(byte[] b, int off, int len) throws IOException {
+                    int n = super.read(b, off, len);
+                    if (n > 0) {
+                        digest.update(b, off, n);
+                        position += n;
+                    }
+                    return n;
+                }
+
+                @Override
+                public long skip(long n) throws IOException {
+                    // skipped bytes are part of the content too
+                    byte[] buffer = new byte[(int) Math.min(n, 64 * 1024)];
+                    int read = n > 0 ? read(buffer, 0, buffer.length) : 0;
+                    return Math.max(read, 0);
+                }
+            };
+        }
+
+        /**
+         *
+         * @return the hex SHA-1 of the whole file, or null if its documents came from the corpus cache
+         * @throws IOException
+         */
+
+        public String finish() throws IOException {
+            if (cached) {
+                return null;
+            }
+            InputStream in = new FileInputStream(file);
+            try {
+                long skipped = 0;
+                while (skipped < position) {
+                    long n = in.skip(position - skipped);
+                    if (n <= 0) {
+                        throw new EOFException("File shrank while it was indexed: " + file);
+                    }
+                    skipped += n;
+                }
+                byte[] buffer = new byte[64 * 1024];
+                int n;
+                while ((n = in.read(buffer)) != -1) {
+                    digest.update(buffer, 0, n);
+                }
+            } finally {
+                in.close();
+            }
+            StringBuilder hex = new StringBuilder();
+            for (byte b : digest.digest()) {
+                hex.append(String.format("%02x", b));
+            }
+            return hex.toString();
+        }
+    }
+}
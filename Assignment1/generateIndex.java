@@ -4,27 +4,55 @@
  *
  * <tt>java generateIndex <Corpus Directory> <Index Directory></tt>
  *
+ * The corpus may hold plain <tt>.trectext</tt> files, <tt>.trectext.gz</tt> files and tar
+ * archives of TREC files; see {@link corpusInput}.
+ *
  * This code expects a directory <tt>StandardAnalyzer</tt> under the <tt><Index Directory></tt>
  * The directory that is to be created is:
  *
+ * Options:
+ *  --threads N          index with N worker threads sharing one IndexWriter (default 1)
+ *  --benchmark-threads  build the index with 1, 2, 4 and N threads and report throughput
+ *  --compare-extract    also time unpacking the compressed files to disk, for comparison
+ *  --incremental        only index new and changed files and update their documents by DOCNO
+ *                       (see {@link corpusManifest}); removed files are deleted from the index
+ *  --report FILE        write the per-stage figures of {@link indexMetrics} to FILE (.json or .csv)
+ *  --progress SECONDS   print a progress line to stderr every SECONDS seconds
+ *  --layout SPEC        index layout: default, compact or minimal, optionally followed by per-field
+ *                       overrides such as "compact;HEAD=index,positions" (see {@link indexSchema})
+ *  --compare-layouts    build the index once per layout and report index size and build time
+ *  --directory MODE     directory implementation used to read the index for the statistics:
+ *                       auto, mmap, nio or ram (see {@link indexDirectory})
+ *  --shards N           split the corpus into N shards and index each in its own worker process
+ *                       under <tt>shard-N</tt> (see {@link shardedIndex}); statistics are
+ *                       computed over all shards through a MultiReader
+ *  --merge              with --shards, merge the shards into the index directory with addIndexes
+ *  --files LIST         only index the corpus files named in LIST, one name per line
+ *  --corpus-cache DIR   read pre-parsed documents from DIR and cache every file parsed in this run
+ *                       there (see {@link corpusCache})
+ *  --checkpoint-docs N  commit a checkpoint after every N documents (see {@link indexCheckpoint})
+ *  --checkpoint-mb N    commit a checkpoint after every N MB of corpus
+ *  --checkpoint-seconds N  commit a checkpoint every N seconds
+ *  --resume             continue a build that was stopped after a checkpoint
+ *  --vocabulary FILE    after indexing, write every term of every field with its df and ttf to
+ *                       FILE (gzip TSV) and print top terms and histograms; see {@link vocabularyStats}
+ *
  * @author Aravindh Varadharaju
  *
  */
-import org.apache.commons.lang3.StringUtils;
 import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.analysis.standard.StandardAnalyzer;
 import org.apache.lucene.document.Document;
-import org.apache.lucene.document.StringField;
-import org.apache.lucene.document.TextField;
 import org.apache.lucene.index.*;
 import org.apache.lucene.store.Directory;
 import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.Bits;
 import org.apache.lucene.util.Version;
 
 import java.io.*;
-import java.util.concurrent.TimeUnit;
-
-import static org.apache.lucene.document.Field.Store.YES;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
 //import org.apache.lucene.util.BytesRef;
 
@@ -43,6 +71,17 @@ public class generateIndex {
     public static final String TEXT = "<TEXT>";
     public static final String TERMINATING_TEXT = "</TEXT>";
 
+    indexMetrics metrics = new indexMetrics("generateIndex");
+    int progressSeconds;
+    indexSchema schema = indexSchema.DEFAULT;
+    String directoryMode = "auto";
+    File fileList;
+    corpusCache corpusCache;
+    indexCheckpoint checkpoint;
+    boolean resume;
+    // off for throwaway builds (thread and layout benchmarks) that are never updated incrementally
+    boolean saveManifest = true;
+
     /**
      *
      * @param dataDir  - Directory where Corpus or data files are stored
@@ -51,98 +90,504 @@ public class generateIndex {
      */
 
     public void index(String dataDir, String indexDir) throws IOException {
-        File[] dataFiles = new File(dataDir).listFiles(new FileFilter() {
-            @Override
-            public boolean accept(File file) {
-                boolean extn = false;
-                if (file.getName().toLowerCase().endsWith(".trectext"))
-                {
-                    extn = true;
+        index(dataDir, indexDir, 1);
+    }
+
+    /**
+     * Indexes the corpus using <tt>numThreads</tt> worker threads. Each worker reads and parses
+     * whole files and adds their documents through the single shared (thread-safe) IndexWriter.
+     * With one thread the files are indexed on the calling thread, exactly as before.
+     *
+     * @param dataDir    - Directory where Corpus or data files are stored
+     * @param indexDir   - Directory where index files will be stored
+     * @param numThreads - Number of indexing threads
+     * @return number of documents added to the index
+     * @throws IOException
+     */
+
+    public int index(String dataDir, String indexDir, int numThreads) throws IOException {
+        return index(dataDir, indexDir, numThreads, false);
+    }
+
+    /**
+     * Indexes the corpus, either from scratch or incrementally. An incremental run reads the
+     * {@link corpusManifest} of the previous run, deletes the documents of removed and changed
+     * files by DOCNO, re-indexes only the new and changed files with updateDocument and skips
+     * the final forceMerge(1), so its cost follows the size of the change, not of the corpus.
+     *
+     * With {@link #checkpoint} set the build is committed at intervals; with {@link #resume} set
+     * a build stopped after such a checkpoint continues with the files it had not finished.
+     *
+     * @param dataDir     - Directory where Corpus or data files are stored
+     * @param indexDir    - Directory where index files will be stored
+     * @param numThreads  - Number of indexing threads
+     * @param incremental - Update the existing index instead of rebuilding it
+     * @return number of documents added or updated
+     * @throws IOException
+     */
+
+    public int index(String dataDir, String indexDir, int numThreads, boolean incremental) throws IOException {
+        metrics = new indexMetrics("generateIndex");
+        metrics.input.cache = corpusCache;
+        File[] dataFiles = fileList == null ? listDataFiles(dataDir) : readFileList(dataDir, fileList);
+        File indexPath = new File(indexDir);
+        corpusManifest manifest = incremental || resume ? corpusManifest.load(indexPath)
+                : saveManifest ? new corpusManifest() : null;
+        List<String> removedFiles = manifest != null ? manifest.removedFiles(dataFiles) : Collections.<String>emptyList();
+        Set<String> completedFiles = Collections.emptySet();
+        if (resume) {
+            completedFiles = indexCheckpoint.completedFiles(indexPath);
+            if (completedFiles == null) {
+                throw new IOException("No checkpoint to resume in " + indexDir);
+            }
+            List<File> remaining = new ArrayList<File>();
+            for (File file : dataFiles) {
+                if (!completedFiles.contains(file.getName())) {
+                    remaining.add(file);
                 }
-                return extn;
             }
-        });
+            System.out.println("**************************************************************************");
+            System.out.println("Resuming from checkpoint: " + completedFiles.size() + " file(s) done, "
+                    + remaining.size() + " to go");
+            dataFiles = remaining.toArray(new File[remaining.size()]);
+        }
+        // documents of files that were partly indexed before the checkpoint are replaced, not duplicated
+        boolean update = incremental || resume;
+        if (incremental) {
+            Map<String, String> commitData = indexCheckpoint.lastCommitData(indexPath);
+            if (commitData != null && indexCheckpoint.CHECKPOINT.equals(commitData.get(indexCheckpoint.STATUS))) {
+                throw new IOException("The last build of " + indexDir + " stopped after a checkpoint; finish it with --resume first");
+            }
+            if (commitData != null && !manifest.matches(commitData)) {
+                throw new IOException("The manifest in " + indexDir + " is newer than the index; rebuild the index");
+            }
+            List<File> changedFiles = manifest.changedFiles(dataFiles);
+            System.out.println("**************************************************************************");
+            System.out.println("Incremental update: " + changedFiles.size() + " new or changed, " + removedFiles.size()
+                    + " removed, " + (dataFiles.length - changedFiles.size()) + " unchanged file(s)");
+            dataFiles = changedFiles.toArray(new File[changedFiles.size()]);
+        }
         System.out.println("**************************************************************************");
         System.out.println("Number of files to be processed: "+(dataFiles.length));
-        Directory directory = FSDirectory.open(new File(indexDir));
-        Analyzer analyzer = new StandardAnalyzer();
+        Directory directory = FSDirectory.open(indexPath);
+        Analyzer analyzer = new timedAnalyzer(new StandardAnalyzer(), metrics);
         IndexWriterConfig iwc = new IndexWriterConfig(Version.LUCENE_4_10_0, analyzer);
-        iwc.setOpenMode(IndexWriterConfig.OpenMode.CREATE);
+        iwc.setOpenMode(update ? IndexWriterConfig.OpenMode.CREATE_OR_APPEND : IndexWriterConfig.OpenMode.CREATE);
+        if (numThreads > iwc.getMaxThreadStates()) {
+            iwc.setMaxThreadStates(numThreads);
+        }
         IndexWriter indexWriter = new IndexWriter(directory, iwc);
-        int fileNo=1;
-        for (File file : dataFiles) {
-            System.out.print("\r" + "Indexing file # " + Integer.toString(fileNo) + " : " + file.toString());
-            fileNo++;
-            FileInputStream fis = null;
-            BufferedInputStream bis = null;
-            DataInputStream dis = null;
-            String fileContent;
-            try {
-                StringBuilder sbFile = new StringBuilder();
-                BufferedReader bufferedReader = new BufferedReader(new InputStreamReader(new FileInputStream(file)));
-                while (bufferedReader.ready()) {
-                    sbFile.append(bufferedReader.readLine());
-                }
-                fileContent = sbFile.toString();
-                String[] docs = StringUtils.substringsBetween(fileContent, DOC, TERMINATING_DOC);
-                for (String doc : docs) {
-                    Document luceneDoc = new Document();
-                    //System.out.println("---------------------------");
-                    //System.out.println(doc);
-                    String[] docno_array = StringUtils.substringsBetween(doc, DOCNO, TERMINATING_DOCNO);
-                    String docno = StringUtils.join(docno_array, " ");
-                    //System.out.println("DOC NO: "+docno);
-                    if (docno != null)
-                        luceneDoc.add(new StringField("DOCNO", docno, YES));
-                    //
-                    String[] head_array = StringUtils.substringsBetween(doc, HEAD, TERMINATING_HEAD);
-                    String head;
-                    head = StringUtils.join(head_array, " ");
-                    //System.out.println("HEAD: "+head);
-                    if (head != null)
-                        luceneDoc.add(new TextField("HEAD", head, YES));
-                    //
-                    String[] bylines_array = StringUtils.substringsBetween(doc, BYLINE, TERMINATING_BYLINE);
-                    String bylines = StringUtils.join(bylines_array, " ");
-                    //System.out.println("BYLINE: "+bylines);
-                    if (bylines != null)
-                        luceneDoc.add(new TextField("BYLINE", bylines, YES));
-                    //
-                    String[] dateline_array = StringUtils.substringsBetween(doc, DATELINE, TERMINATING_DATELINE);
-                    String dateline = StringUtils.join(dateline_array, " ");
-                    //System.out.println("DATELINE: "+dateline);
-                    if (dateline != null)
-                        luceneDoc.add(new TextField("DATELINE", dateline, YES));
-                    //
-                    String[] text_array = StringUtils.substringsBetween(doc, TEXT, TERMINATING_TEXT);
-                    //System.out.println("TEXT: "+text);
-                    String text = StringUtils.join(text_array, " ");
-                    if (text != null)
-                        luceneDoc.add(new TextField("TEXT", text, YES));
-                    indexWriter.addDocument(luceneDoc);
+        schema.openSidecar(indexPath, update);
+        // the last commit always says whether the build is complete: an appending writer keeps the
+        // commit data of the last commit, and a build with unreadable files must stay resumable
+        indexCheckpoint checkpoints = checkpoint != null ? checkpoint : new indexCheckpoint(0, 0, 0);
+        checkpoints.start(indexWriter, manifest, indexPath, metrics, schema, completedFiles);
+        metrics.totalFiles = dataFiles.length;
+        if (progressSeconds > 0) {
+            metrics.startProgress(progressSeconds, System.err);
+        }
+        if (update) {
+            // a resumed build only drops the files removed since the checkpoint; it re-indexes
+            // its remaining files with updateDocument anyway
+            long start = System.nanoTime();
+            deleteRecordedDocuments(indexWriter, manifest, incremental ? dataFiles : new File[0], removedFiles, schema);
+            metrics.stageDone(indexMetrics.DELETE, System.nanoTime() - start);
+        }
+        int docCount = indexFiles(dataFiles, indexWriter, numThreads, metrics, manifest, update, schema, checkpoints);
+        metrics.documentsDone();
+        if (!incremental) {
+            long start = System.nanoTime();
+            indexWriter.forceMerge(1);
+            metrics.stageDone(indexMetrics.FORCE_MERGE, System.nanoTime() - start);
+        }
+        if (manifest != null) {
+            for (String removed : removedFiles) {
+                manifest.remove(removed);
+            }
+        } else {
+            // a manifest left by an earlier build would no longer describe this index
+            new File(indexPath, corpusManifest.FILE_NAME).delete();
+        }
+        // an incremental run retries its failed files by itself, as the manifest does not record
+        // them; finish() saves the manifest ahead of the commit
+        List<String> failedFiles = metrics.failedFiles();
+        if (checkpoints.finish(failedFiles.isEmpty() || incremental) > 0) {
+            System.out.print("\n");
+            System.out.println("Checkpoints committed: " + metrics.stageSeconds(indexCheckpoint.STAGE) + " sec");
+        }
+        long start = System.nanoTime();
+        indexWriter.commit();
+        metrics.stageDone(indexMetrics.COMMIT, System.nanoTime() - start);
+        indexWriter.close();
+        schema.closeSidecar();
+        metrics.finish();
+        if (!failedFiles.isEmpty()) {
+            throw new IOException(failedFiles.size() + " file(s) could not be read to the end: " + failedFiles
+                    + "; fix them and run again with " + (incremental ? "--incremental" : "--resume"));
+        }
+        return docCount;
+    }
+
+    /**
+     * Deletes the documents that the manifest records for the given changed and removed files.
+     * This runs before any of the changed files are re-indexed, so a DOCNO that moved from one
+     * changed file to another is never deleted after its new version was added.
+     *
+     * @param indexWriter  - Writer on the index being updated
+     * @param manifest     - Manifest of the previous run
+     * @param changedFiles - Files that will be re-indexed
+     * @param removedFiles - Names of files that are no longer in the corpus
+     * @param schema       - Schema whose sidecar drops the bodies of the deleted documents
+     * @throws IOException
+     */
+
+    static void deleteRecordedDocuments(IndexWriter indexWriter, corpusManifest manifest, File[] changedFiles,
+                                        List<String> removedFiles, indexSchema schema) throws IOException {
+        List<String> names = new ArrayList<String>(removedFiles);
+        for (File file : changedFiles) {
+            names.add(file.getName());
+        }
+        List<String> docnos = manifest.docnos(names);
+        Term[] terms = new Term[docnos.size()];
+        for (int i = 0; i < terms.length; i++) {
+            terms[i] = new Term("DOCNO", docnos.get(i));
+        }
+        indexWriter.deleteDocuments(terms);
+        schema.deleteBodies(docnos);
+    }
+
+    /**
+     * Indexes the given files on <tt>numThreads</tt> worker threads, or on the calling thread
+     * when <tt>numThreads</tt> is one.
+     *
+     * @param dataFiles   - Corpus files to be indexed
+     * @param indexWriter - Writer the documents are added to
+     * @param numThreads  - Number of indexing threads
+     * @param metrics     - Opens the files and records the time spent on each of them
+     * @param manifest    - Manifest in which every indexed file is recorded
+     * @param update      - Replace documents by DOCNO instead of adding them
+     * @param schema      - Decides how each field is stored and indexed
+     * @param checkpoint  - Told about every completed file, may be null
+     * @return number of documents indexed from the files that were read to the end
+     * @throws IOException
+     */
+
+    static int indexFiles(File[] dataFiles, final IndexWriter indexWriter, int numThreads, final indexMetrics metrics,
+                          final corpusManifest manifest, final boolean update, final indexSchema schema,
+                          final indexCheckpoint checkpoint) throws IOException {
+        int docCount = 0;
+        if (numThreads <= 1) {
+            int fileNo=1;
+            for (File file : dataFiles) {
+                System.out.print("\r" + "Indexing file # " + Integer.toString(fileNo) + " : " + file.toString());
+                fileNo++;
+                int added = indexFile(file, indexWriter, metrics, manifest, update, schema);
+                if (added >= 0) {
+                    if (checkpoint != null) {
+                        checkpoint.fileDone(file, added);
+                    }
+                    docCount += added;
                 }
-            } catch (IOException e) {
-                e.printStackTrace();
-            } finally {
-                try {
-                    if (dis != null) {
-                        dis.close();
+            }
+        } else {
+            final AtomicInteger filesDone = new AtomicInteger();
+            ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+            List<Future<Integer>> results = new ArrayList<Future<Integer>>(dataFiles.length);
+            for (final File file : dataFiles) {
+                results.add(executor.submit(new Callable<Integer>() {
+                    @Override
+                    public Integer call() throws IOException {
+                        int added = indexFile(file, indexWriter, metrics, manifest, update, schema);
+                        if (added >= 0 && checkpoint != null) {
+                            checkpoint.fileDone(file, added);
+                        }
+                        System.out.print("\r" + "Indexing file # " + Integer.toString(filesDone.incrementAndGet()) + " : " + file.toString());
+                        return added;
                     }
-                    if (bis != null) {
-                        bis.close();
+                }));
+            }
+            executor.shutdown();
+            try {
+                for (Future<Integer> result : results) {
+                    docCount += Math.max(result.get(), 0);
+                }
+            } catch (InterruptedException e) {
+                executor.shutdownNow();
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Indexing interrupted");
+            } catch (ExecutionException e) {
+                executor.shutdownNow();
+                indexWriter.rollback();
+                throw new IOException("Indexing failed", e.getCause());
+            }
+        }
+        return docCount;
+    }
+
+    /**
+     *
+     * @param dataDir - Directory where Corpus or data files are stored
+     * @return the corpus files in the directory (see {@link corpusInput#accepts}), sorted by name
+     */
+
+    static File[] listDataFiles(String dataDir) {
+        File[] dataFiles = new File(dataDir).listFiles(new FileFilter() {
+            @Override
+            public boolean accept(File file) {
+                return file.isFile() && corpusInput.accepts(file.getName());
+            }
+        });
+        if (dataFiles == null) {
+            return new File[0];
+        }
+        Arrays.sort(dataFiles);
+        return dataFiles;
+    }
+
+    /**
+     *
+     * @param dataDir  - Directory where Corpus or data files are stored
+     * @param fileList - File with the names of the corpus files to be indexed, one per line
+     * @return the named files, in list order
+     * @throws IOException if the list cannot be read or names a file that does not exist
+     */
+
+    static File[] readFileList(String dataDir, File fileList) throws IOException {
+        List<File> dataFiles = new ArrayList<File>();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(fileList), "UTF-8"));
+        try {
+            String name;
+            while ((name = reader.readLine()) != null) {
+                if (name.trim().isEmpty()) {
+                    continue;
+                }
+                File file = new File(dataDir, name.trim());
+                if (!file.isFile()) {
+                    throw new FileNotFoundException("Listed in " + fileList + " but not found: " + file);
+                }
+                dataFiles.add(file);
+            }
+        } finally {
+            reader.close();
+        }
+        return dataFiles.toArray(new File[dataFiles.size()]);
+    }
+
+    /**
+     * Parses one corpus file and adds its documents to the writer. Safe to call from several
+     * threads at once as long as they work on different files.
+     *
+     * @param file        - Corpus file to be indexed
+     * @param indexWriter - Writer the documents are added to
+     * @param metrics     - Opens the file and records the time spent reading, parsing and adding
+     * @param manifest    - Manifest in which the file and its DOCNOs are recorded, may be null
+     * @param update      - Replace documents by DOCNO instead of adding them
+     * @param schema      - Decides how each field is stored and indexed
+     * @return number of documents indexed, or -1 if the file could not be read to the end; its
+     *         documents up to the error are in the index, but the file is neither recorded in the
+     *         manifest nor counted as done
+     * @throws IOException
+     */
+
+    static int indexFile(File file, IndexWriter indexWriter, indexMetrics metrics, corpusManifest manifest,
+                         boolean update, indexSchema schema) throws IOException {
+        int docCount = 0;
+        List<String> docnos = new ArrayList<String>();
+        corpusManifest.contentHash hash = manifest != null ? new corpusManifest.contentHash(file) : null;
+        trecDocumentStream parser = null;
+        long fileStart = System.nanoTime();
+        long parseNanos = 0;
+        long addNanos = 0;
+        try {
+            parser = metrics.input.open(file, hash);
+            trecDocument doc;
+            long parseStart = System.nanoTime();
+            while ((doc = parser.next()) != null) {
+                long addStart = System.nanoTime();
+                parseNanos += addStart - parseStart;
+                if (update && doc.docno != null) {
+                    indexWriter.updateDocument(new Term("DOCNO", doc.docno), doc.toDocument(schema));
+                } else {
+                    indexWriter.addDocument(doc.toDocument(schema));
+                }
+                schema.storeBody(doc);
+                if (doc.docno != null) {
+                    docnos.add(doc.docno);
+                }
+                docCount++;
+                parseStart = System.nanoTime();
+                addNanos += parseStart - addStart;
+            }
+            parseNanos += System.nanoTime() - parseStart;
+        } catch (IOException e) {
+            e.printStackTrace();
+            metrics.fileFailed(file);
+            return -1;
+        } finally {
+            metrics.addTime(indexMetrics.PARSE, parseNanos);
+            metrics.addTime(indexMetrics.ADD_DOCUMENT, addNanos);
+            try {
+                if (parser != null) {
+                    parser.close();
+                }
+            } catch (IOException ex) {
+                ex.printStackTrace();
+            }
+        }
+        if (manifest != null) {
+            manifest.update(file, docnos, hash.finish());
+        }
+        metrics.fileDone(file, System.nanoTime() - fileStart, docCount);
+        return docCount;
+    }
+
+    /**
+     * Builds the index once for each thread count (1, 2, 4 and <tt>maxThreads</tt>) under
+     * <tt>indexDir/threads-N</tt>, reports the throughput of each run and checks that every
+     * parallel index holds the same documents as the single threaded one.
+     *
+     * @param dataDir    - Directory where Corpus or data files are stored
+     * @param indexDir   - Directory under which one index per thread count is written
+     * @param maxThreads - Largest thread count to measure
+     * @throws IOException
+     */
+
+    public void benchmarkThreads(String dataDir, String indexDir, int maxThreads) throws IOException {
+        long corpusBytes = 0;
+        for (File file : listDataFiles(dataDir)) {
+            corpusBytes += file.length();
+        }
+        TreeSet<Integer> threadCounts = new TreeSet<Integer>(Arrays.asList(1, 2, 4, maxThreads));
+        List<String> report = new ArrayList<String>();
+        String serialIndex = null;
+        boolean configured = saveManifest;
+        saveManifest = false;
+        try {
+            for (int threads : threadCounts) {
+                String threadIndex = indexDir + System.getProperty("file.separator") + "threads-" + threads;
+                long start = System.nanoTime();
+                int docs = index(dataDir, threadIndex, threads);
+                double seconds = (System.nanoTime() - start) / 1e9;
+                String line = String.format("%3d thread(s): %8.2f sec, %10.1f docs/sec, %8.2f MB/sec",
+                        threads, seconds, docs / seconds, corpusBytes / seconds / (1024 * 1024));
+                if (serialIndex == null) {
+                    serialIndex = threadIndex;
+                } else {
+                    int mismatches = compareIndexes(serialIndex, threadIndex);
+                    line += mismatches == 0 ? ", identical to serial index" : ", " + mismatches + " document(s) differ from serial index";
+                }
+                report.add(line);
+            }
+        } finally {
+            saveManifest = configured;
+        }
+        System.out.print("\n");
+        System.out.println("**************************************************************************");
+        System.out.println("Indexing throughput (" + corpusBytes + " bytes of corpus):");
+        for (String line : report) {
+            System.out.println(line);
+        }
+        System.out.println("**************************************************************************");
+    }
+
+    /**
+     * Builds the index once for each layout of {@link indexSchema} under
+     * <tt>indexDir/layout-NAME</tt> and reports the build and forceMerge time, the index size,
+     * how much of it is stored fields, and the size of the sidecar body store.
+     *
+     * @param dataDir    - Directory where Corpus or data files are stored
+     * @param indexDir   - Directory under which one index per layout is written
+     * @param numThreads - Number of indexing threads
+     * @throws IOException
+     */
+
+    public void compareLayouts(String dataDir, String indexDir, int numThreads) throws IOException {
+        indexSchema configured = schema;
+        boolean configuredManifest = saveManifest;
+        saveManifest = false;
+        List<String> report = new ArrayList<String>();
+        try {
+            for (String layout : indexSchema.LAYOUTS) {
+                schema = indexSchema.layout(layout);
+                File layoutIndex = new File(indexDir, "layout-" + layout);
+                index(dataDir, layoutIndex.getPath(), numThreads);
+                long indexBytes = 0;
+                long storedBytes = 0;
+                File[] files = layoutIndex.listFiles();
+                for (File file : files == null ? new File[0] : files) {
+                    if (file.getName().equals(bodyStore.DATA_FILE) || file.getName().equals(bodyStore.INDEX_FILE)
+                            || file.getName().equals(corpusManifest.FILE_NAME)) {
+                        continue;
                     }
-                    if (fis != null) {
-                        fis.close();
+                    indexBytes += file.length();
+                    if (file.getName().endsWith(".fdt") || file.getName().endsWith(".fdx")) {
+                        storedBytes += file.length();
                     }
-                } catch (IOException ex) {
-                    ex.printStackTrace();
                 }
+                report.add(String.format("%-8s %10.2f %12.2f %12.2f %12.2f %12.2f", layout, metrics.wallSeconds(),
+                        metrics.stageSeconds(indexMetrics.FORCE_MERGE), indexBytes / 1048576.0, storedBytes / 1048576.0,
+                        bodyStore.sizeOf(layoutIndex) / 1048576.0));
             }
+        } finally {
+            schema = configured;
+            saveManifest = configuredManifest;
         }
-        indexWriter.forceMerge(1);
-        indexWriter.commit();
-        indexWriter.close();
+        System.out.print("\n");
+        System.out.println("**************************************************************************");
+        System.out.println(String.format("%-8s %10s %12s %12s %12s %12s", "Layout", "Build (s)", "Merge (s)", "Index (MB)", "Stored (MB)", "Sidecar (MB)"));
+        for (String line : report) {
+            System.out.println(line);
+        }
+        System.out.println("**************************************************************************");
+    }
 
+    /**
+     * Compares two indexes document-for-document. Documents are matched on their DOCNO since
+     * parallel indexing does not preserve the serial document order.
+     *
+     * @param expectedIndexPath - Directory of the reference index
+     * @param actualIndexPath   - Directory of the index being checked
+     * @return number of documents that are missing or whose stored fields differ
+     * @throws IOException
+     */
+
+    int compareIndexes(String expectedIndexPath, String actualIndexPath) throws IOException {
+        IndexReader expected = DirectoryReader.open(FSDirectory.open(new File(expectedIndexPath)));
+        IndexReader actual = DirectoryReader.open(FSDirectory.open(new File(actualIndexPath)));
+        try {
+            Bits actualLiveDocs = MultiFields.getLiveDocs(actual);
+            Map<String, Integer> actualDocs = new HashMap<String, Integer>();
+            for (int i = 0; i < actual.maxDoc(); i++) {
+                if (actualLiveDocs == null || actualLiveDocs.get(i)) {
+                    actualDocs.put(indexSchema.docno(actual, i), i);
+                }
+            }
+            Bits expectedLiveDocs = MultiFields.getLiveDocs(expected);
+            int mismatches = Math.abs(expected.numDocs() - actual.numDocs());
+            for (int i = 0; i < expected.maxDoc(); i++) {
+                if (expectedLiveDocs != null && !expectedLiveDocs.get(i)) {
+                    continue;
+                }
+                Document expectedDoc = expected.document(i);
+                Integer match = actualDocs.get(indexSchema.docno(expected, i));
+                if (match == null || !sameStoredFields(expectedDoc, actual.document(match))) {
+                    mismatches++;
+                }
+            }
+            return mismatches;
+        } finally {
+            expected.close();
+            actual.close();
+        }
+    }
+
+    private static boolean sameStoredFields(Document expected, Document actual) {
+        for (String field : new String[]{"DOCNO", "HEAD", "BYLINE", "DATELINE", "TEXT"}) {
+            if (!Arrays.equals(expected.getValues(field), actual.getValues(field))) {
+                return false;
+            }
+        }
+        return true;
     }
 
     /**
@@ -151,12 +596,14 @@ public class generateIndex {
      */
 
     public void getStats(String indexDirPath){
+        Directory directory = null;
         IndexReader indexReader=null;
         try {
-            indexReader = DirectoryReader.open(FSDirectory.open(new File(indexDirPath)));
+            directory = indexDirectory.open(new File(indexDirPath), directoryMode);
+            indexReader = DirectoryReader.open(directory);
             System.out.print("\n");
             System.out.println("**************************************************************************");
-            System.out.println("Total number of documents in the Corpus: "+indexReader.maxDoc());
+            System.out.println("Total number of documents in the Corpus: "+indexReader.numDocs());
             System.out.println("Number of documents containing the term \"new\" for field \"TEXT\": "+indexReader.docFreq(new Term("TEXT","new")));
             System.out.println("Number of occurences of \"new\" in the field \"TEXT\": "+indexReader.totalTermFreq(new Term("TEXT", "new")));
             Terms term = MultiFields.getTerms(indexReader, "TEXT");
@@ -183,6 +630,39 @@ public class generateIndex {
                 if (indexReader != null) {
                     indexReader.close();
                 }
+                if (directory != null) {
+                    directory.close();
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     *
+     * @param indexDirPath - Directory where index files are stored
+     * @param outputFile   - gzip TSV file receiving the full term list
+     * @param numThreads   - Number of threads reading segments, and of fields merged at the same time
+     */
+
+    public void exportVocabulary(String indexDirPath, String outputFile, int numThreads) {
+        Directory directory = null;
+        IndexReader indexReader = null;
+        try {
+            directory = indexDirectory.open(new File(indexDirPath), directoryMode);
+            indexReader = DirectoryReader.open(directory);
+            vocabularyStats.printSummary(vocabularyStats.export(indexReader, new File(outputFile), 20, numThreads), System.out);
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            try {
+                if (indexReader != null) {
+                    indexReader.close();
+                }
+                if (directory != null) {
+                    directory.close();
+                }
             } catch (IOException e) {
                 e.printStackTrace();
             }
@@ -191,20 +671,146 @@ public class generateIndex {
 
     public static void main(String[] args) {
 	// write your code here
-        if(args.length != 2) {
-            System.out.println("Usage: java " + generateIndex.class.getName() + " <Corpus Directory> <Index Directory>");
+        if(args.length < 2) {
+            System.out.println("Usage: java " + generateIndex.class.getName() + " <Corpus Directory> <Index Directory> [--threads N] [--benchmark-threads] [--incremental] [--compare-extract] [--report <file.json|file.csv>] [--progress seconds] [--layout spec] [--compare-layouts] [--directory auto|mmap|nio|ram] [--shards N [--merge]] [--files <list>] [--corpus-cache <dir>] [--checkpoint-docs N] [--checkpoint-mb N] [--checkpoint-seconds N] [--resume] [--vocabulary <file.tsv.gz>]");
             System.exit(-1);
         }
         String docDir = args[0];    // Path where the corpus is stored
         String indexDir = args[1];  // Path where index files will be written to
+        int numThreads = 1;
+        boolean benchmark = false;
+        boolean incremental = false;
+        boolean compareExtract = false;
+        String reportFile = null;
+        int progressSeconds = 0;
+        String vocabularyFile = null;
+        String layout = null;
+        boolean compareLayouts = false;
+        String directoryMode = "auto";
+        int shards = 0;
+        boolean merge = false;
+        String fileList = null;
+        String cacheDir = null;
+        long checkpointDocs = 0;
+        long checkpointBytes = 0;
+        long checkpointSeconds = 0;
+        boolean resume = false;
+        for (int i = 2; i < args.length; i++) {
+            if (args[i].equals("--threads") && i + 1 < args.length) {
+                numThreads = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("--benchmark-threads")) {
+                benchmark = true;
+            } else if (args[i].equals("--incremental")) {
+                incremental = true;
+            } else if (args[i].equals("--compare-extract")) {
+                compareExtract = true;
+            } else if (args[i].equals("--report") && i + 1 < args.length) {
+                reportFile = args[++i];
+            } else if (args[i].equals("--progress") && i + 1 < args.length) {
+                progressSeconds = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("--layout") && i + 1 < args.length) {
+                layout = args[++i];
+            } else if (args[i].equals("--compare-layouts")) {
+                compareLayouts = true;
+            } else if (args[i].equals("--directory") && i + 1 < args.length) {
+                directoryMode = args[++i];
+            } else if (args[i].equals("--shards") && i + 1 < args.length) {
+                shards = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("--merge")) {
+                merge = true;
+            } else if (args[i].equals("--files") && i + 1 < args.length) {
+                fileList = args[++i];
+            } else if (args[i].equals("--corpus-cache") && i + 1 < args.length) {
+                cacheDir = args[++i];
+            } else if (args[i].equals("--checkpoint-docs") && i + 1 < args.length) {
+                checkpointDocs = Long.parseLong(args[++i]);
+            } else if (args[i].equals("--checkpoint-mb") && i + 1 < args.length) {
+                checkpointBytes = Long.parseLong(args[++i]) * 1024 * 1024;
+            } else if (args[i].equals("--checkpoint-seconds") && i + 1 < args.length) {
+                checkpointSeconds = Long.parseLong(args[++i]);
+            } else if (args[i].equals("--resume")) {
+                resume = true;
+            } else if (args[i].equals("--vocabulary") && i + 1 < args.length) {
+                vocabularyFile = args[++i];
+            } else {
+                System.out.println("Unknown option: " + args[i]);
+                System.exit(-1);
+            }
+        }
+        if (resume && incremental) {
+            System.out.println("--resume continues an interrupted full build and cannot be combined with --incremental");
+            System.exit(-1);
+        }
         long startTime = System.currentTimeMillis();
         generateIndex obj = new generateIndex();
-        try {
-            obj.index(docDir, indexDir);
-        } catch (IOException e) {
-            e.printStackTrace();
+        obj.progressSeconds = progressSeconds;
+        obj.directoryMode = directoryMode;
+        obj.resume = resume;
+        if (checkpointDocs > 0 || checkpointBytes > 0 || checkpointSeconds > 0) {
+            obj.checkpoint = new indexCheckpoint(checkpointDocs, checkpointBytes, checkpointSeconds);
+        }
+        if (fileList != null) {
+            obj.fileList = new File(fileList);
+        }
+        if (cacheDir != null) {
+            try {
+                obj.corpusCache = new corpusCache(new File(cacheDir));
+            } catch (IOException e) {
+                e.printStackTrace();
+                System.exit(-1);
+            }
+        }
+        if (layout != null) {
+            obj.schema = indexSchema.parse(layout);
+        }
+        // a failed build exits non-zero, so that a calling process (such as a shard build)
+        // does not take a partial index for a complete one
+        boolean failed = false;
+        if (shards > 0) {
+            try {
+                shardedIndex.build(docDir, indexDir, shards, numThreads, layout, merge);
+                shardedIndex.printStats(indexDir);
+            } catch (IOException e) {
+                e.printStackTrace();
+                failed = true;
+            }
+        } else if (compareLayouts) {
+            try {
+                obj.compareLayouts(docDir, indexDir, numThreads);
+            } catch (IOException e) {
+                e.printStackTrace();
+                failed = true;
+            }
+        } else if (benchmark) {
+            try {
+                obj.benchmarkThreads(docDir, indexDir, Math.max(numThreads, Runtime.getRuntime().availableProcessors()));
+            } catch (IOException e) {
+                e.printStackTrace();
+                failed = true;
+            }
+        } else {
+            try {
+                obj.index(docDir, indexDir, numThreads, incremental);
+                long extractNanos = -1;
+                if (compareExtract) {
+                    File scratchDir = new File(indexDir, "extract-scratch");
+                    extractNanos = corpusInput.measureExtraction(listDataFiles(docDir), scratchDir);
+                    scratchDir.delete();
+                }
+                obj.metrics.input.printReport(extractNanos);
+                obj.metrics.printSummary(System.out);
+                if (reportFile != null) {
+                    indexMetrics.writeReport(new File(reportFile), Collections.singletonList(obj.metrics));
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+                failed = true;
+            }
+            obj.getStats(indexDir);
+            if (vocabularyFile != null) {
+                obj.exportVocabulary(indexDir, vocabularyFile, Math.max(numThreads, Runtime.getRuntime().availableProcessors()));
+            }
         }
-        obj.getStats(indexDir);
         long endTime = System.currentTimeMillis();
         long millis = endTime - startTime;
         System.out.print("Time taken: "+String.format("%d min, %d sec",
@@ -212,5 +818,8 @@ public class generateIndex {
                 TimeUnit.MILLISECONDS.toSeconds(millis) -
                         TimeUnit.MINUTES.toSeconds(TimeUnit.MILLISECONDS.toMinutes(millis))
         ));
+        if (failed) {
+            System.exit(1);
+        }
     }
 }
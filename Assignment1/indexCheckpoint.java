@@ -0,0 +1,199 @@
+/**
+ * indexCheckpoint commits a long index build at intervals, so that a crash or kill only loses
+ * the work since the last checkpoint. A checkpoint is taken when a corpus file has been fully
+ * indexed and at least one of the limits (documents, bytes of corpus, seconds) has been reached
+ * since the previous one. Each checkpoint commit carries, as commit user data, the names of the
+ * files that are completely in the index. The {@link corpusManifest} and the sidecar body store
+ * of the {@link indexSchema} are saved before the commit, and the commit records the generation
+ * of the manifest, so a crash in between is detected rather than leaving a manifest that lists
+ * files the index does not have.
+ *
+ * A resumed run indexes the remaining files with updateDocument by DOCNO. Documents of files
+ * that were only partly indexed when the checkpoint was taken (on other threads) are therefore
+ * replaced rather than duplicated. The documents of corpus files that were removed since the
+ * checkpoint are deleted by DOCNO, as the manifest records them.
+ *
+ */
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexCommit;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+
+public class indexCheckpoint {
+
+    public static final String STATUS = "status";
+    public static final String COMPLETED_FILES = "completedFiles";
+    public static final String CHECKPOINT = "checkpoint";
+    public static final String COMPLETE = "complete";
+    public static final String STAGE = "checkpoint";
+
+    private final long everyDocs;
+    private final long everyBytes;
+    private final long everyNanos;
+
+    private IndexWriter indexWriter;
+    private corpusManifest manifest;
+    private File indexDir;
+    private indexMetrics metrics;
+    private indexSchema schema;
+    private final Set<String> completed = new TreeSet<String>();
+    private long docs;
+    private long bytes;
+    private long lastNanos;
+    private int commits;
+
+    /**
+     *
+     * @param everyDocs    - Documents between checkpoints, 0 for no limit
+     * @param everyBytes   - Bytes of corpus between checkpoints, 0 for no limit
+     * @param everySeconds - Seconds between checkpoints, 0 for no limit
+     */
+
+    public indexCheckpoint(long everyDocs, long everyBytes, long everySeconds) {
+        this.everyDocs = everyDocs;
+        this.everyBytes = everyBytes;
+        this.everyNanos = everySeconds * 1000000000L;
+    }
+
+    /**
+     *
+     * @param indexWriter      - Writer that is committed at every checkpoint
+     * @param manifest         - Manifest saved with every checkpoint, may be null
+     * @param indexDir         - Directory of the index
+     * @param metrics          - Receives the time spent in checkpoint commits
+     * @param schema           - Schema whose sidecar is flushed with every checkpoint
+     * @param alreadyCompleted - Files completed by the run that is being resumed
+     */
+
+    public synchronized void start(IndexWriter indexWriter, corpusManifest manifest, File indexDir, indexMetrics metrics,
+                                   indexSchema schema, Collection<String> alreadyCompleted) {
+        this.indexWriter = indexWriter;
+        this.manifest = manifest;
+        this.indexDir = indexDir;
+        this.metrics = metrics;
+        this.schema = schema;
+        this.completed.clear();
+        this.completed.addAll(alreadyCompleted);
+        this.docs = 0;
+        this.bytes = 0;
+        this.lastNanos = System.nanoTime();
+    }
+
+    /**
+     * Records a fully indexed file and takes a checkpoint if one is due.
+     *
+     * @param file     - Corpus file that has been indexed
+     * @param fileDocs - Number of documents indexed from it
+     * @throws IOException
+     */
+
+    public synchronized void fileDone(File file, int fileDocs) throws IOException {
+        completed.add(file.getName());
+        docs += fileDocs;
+        bytes += file.length();
+        if ((everyDocs > 0 && docs >= everyDocs) || (everyBytes > 0 && bytes >= everyBytes)
+                || (everyNanos > 0 && System.nanoTime() - lastNanos >= everyNanos)) {
+            long start = System.nanoTime();
+            schema.flushSidecar();
+            indexWriter.setCommitData(checkpointData(++commits));
+            indexWriter.commit();
+            metrics.addTime(STAGE, System.nanoTime() - start);
+            docs = 0;
+            bytes = 0;
+            lastNanos = System.nanoTime();
+        }
+    }
+
+    // saves the manifest, which must therefore be called right before the commit
+    private Map<String, String> checkpointData(int checkpoint) throws IOException {
+        Map<String, String> commitData = new HashMap<String, String>();
+        commitData.put(STATUS, CHECKPOINT);
+        commitData.put(COMPLETED_FILES, join(completed));
+        commitData.put(CHECKPOINT, Integer.toString(checkpoint));
+        if (manifest != null) {
+            commitData.put(corpusManifest.GENERATION, manifest.saveForCommit(indexDir));
+        }
+        return commitData;
+    }
+
+    /**
+     * Saves the manifest and sets the commit data of the last commit of the build, which must
+     * follow right after. A build that could not read all of its files ends with one more
+     * checkpoint, so that a resumed run retries the missing files.
+     *
+     * @param complete - Every file of the build has been indexed
+     * @return number of checkpoints taken, not counting the last commit
+     * @throws IOException
+     */
+
+    public synchronized int finish(boolean complete) throws IOException {
+        if (complete) {
+            Map<String, String> commitData = new HashMap<String, String>();
+            commitData.put(STATUS, COMPLETE);
+            if (manifest != null) {
+                commitData.put(corpusManifest.GENERATION, manifest.saveForCommit(indexDir));
+            }
+            indexWriter.setCommitData(commitData);
+        } else {
+            indexWriter.setCommitData(checkpointData(commits + 1));
+        }
+        return commits;
+    }
+
+    /**
+     *
+     * @param indexDir - Directory of an index
+     * @return the files completed by the last checkpoint, or <tt>null</tt> if the last commit of
+     *         the index is not a checkpoint (or there is no index)
+     * @throws IOException
+     */
+
+    public static Set<String> completedFiles(File indexDir) throws IOException {
+        Map<String, String> commitData = lastCommitData(indexDir);
+        if (commitData == null || !CHECKPOINT.equals(commitData.get(STATUS))) {
+            return null;
+        }
+        Set<String> files = new TreeSet<String>();
+        String names = commitData.get(COMPLETED_FILES);
+        if (names != null && !names.isEmpty()) {
+            files.addAll(Arrays.asList(names.split("\n")));
+        }
+        return files;
+    }
+
+    /**
+     *
+     * @param indexDir - Directory of an index
+     * @return the user data of the last commit of the index, or <tt>null</tt> if there is no index
+     * @throws IOException
+     */
+
+    public static Map<String, String> lastCommitData(File indexDir) throws IOException {
+        Directory directory = FSDirectory.open(indexDir);
+        try {
+            if (!DirectoryReader.indexExists(directory)) {
+                return null;
+            }
+            List<IndexCommit> commits = DirectoryReader.listCommits(directory);
+            return commits.get(commits.size() - 1).getUserData();
+        } finally {
+            directory.close();
+        }
+    }
+
+    private static String join(Collection<String> names) {
+        StringBuilder joined = new StringBuilder();
+        for (String name : names) {
+            if (joined.length() > 0) {
+                joined.append('\n');
+            }
+            joined.append(name);
+        }
+        return joined.toString();
+    }
+}
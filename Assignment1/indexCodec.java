@@ -0,0 +1,198 @@
+/**
+ * indexCodec is the Lucene 4.10 codec with a postings format chosen per field, so that a field
+ * that is only ever looked up by exact term (DOCNO) can be kept in a memory-resident format
+ * while TEXT stays in the default block tree format. The codec keeps the name Lucene410; the
+ * format of every field is recorded in the index itself, so an index written with it is opened
+ * by any reader that has the lucene-codecs jar on its class path.
+ *
+ * A codec is given as a preset name, optionally followed by per-field overrides separated by
+ * <tt>;</tt>, for example <tt>default;DOCNO=Memory;HEAD=Pulsing41</tt>. The field <tt>*</tt>
+ * sets the format of every field without an override of its own. Formats are the postings
+ * format names of Lucene (Lucene41, Memory, Direct, Pulsing41, FST41, FSTOrd41, ...). Presets:
+ *
+ *  default       - Lucene41 block tree postings for every field
+ *  memory-docno  - DOCNO in an FST held on the heap (Memory), everything else Lucene41
+ *  pulsing-docno - DOCNO postings inlined into the terms dictionary (Pulsing41)
+ *  direct        - every field decoded into plain arrays on the heap (Direct)
+ *
+ * It also measures the two access paths a format affects: exact term lookups and iterating
+ * over postings.
+ *
+ */
+import org.apache.lucene.codecs.PostingsFormat;
+import org.apache.lucene.codecs.lucene410.Lucene410Codec;
+import org.apache.lucene.index.*;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.util.BytesRef;
+
+import java.io.IOException;
+import java.util.*;
+
+public class indexCodec extends Lucene410Codec {
+
+    public static final String[] PRESETS = {"default", "memory-docno", "pulsing-docno", "direct"};
+
+    public final String spec;
+    private PostingsFormat defaultFormat = PostingsFormat.forName("Lucene41");
+    private final Map<String, PostingsFormat> formats = new HashMap<String, PostingsFormat>();
+
+    private indexCodec(String spec) {
+        this.spec = spec;
+    }
+
+    /**
+     *
+     * @param spec - Preset name from {@link #PRESETS}, optionally followed by FIELD=Format overrides
+     * @return the codec
+     */
+
+    public static indexCodec parse(String spec) {
+        String[] parts = spec.split(";");
+        indexCodec codec = new indexCodec(spec);
+        String preset = parts[0].trim();
+        if (preset.equals("memory-docno")) {
+            codec.formats.put("DOCNO", PostingsFormat.forName("Memory"));
+        } else if (preset.equals("pulsing-docno")) {
+            codec.formats.put("DOCNO", PostingsFormat.forName("Pulsing41"));
+        } else if (preset.equals("direct")) {
+            codec.defaultFormat = PostingsFormat.forName("Direct");
+        } else if (!preset.equals("default")) {
+            throw new IllegalArgumentException("Unknown codec preset: " + preset + ", expected one of " + Arrays.toString(PRESETS));
+        }
+        for (int i = 1; i < parts.length; i++) {
+            String part = parts[i].trim();
+            int equals = part.indexOf('=');
+            if (equals <= 0) {
+                throw new IllegalArgumentException("Expected FIELD=Format: " + part);
+            }
+            String field = part.substring(0, equals).trim();
+            PostingsFormat format = PostingsFormat.forName(part.substring(equals + 1).trim());
+            if (field.equals("*")) {
+                codec.defaultFormat = format;
+            } else {
+                codec.formats.put(field, format);
+            }
+        }
+        return codec;
+    }
+
+    @Override
+    public PostingsFormat getPostingsFormatForField(String field) {
+        PostingsFormat format = formats.get(field);
+        return format != null ? format : defaultFormat;
+    }
+
+    /**
+     * Picks up to <tt>count</tt> terms spread evenly over the vocabulary of a field, in random
+     * order, so that consecutive lookups do not hit neighbouring blocks.
+     *
+     * @param reader - Reader of the index
+     * @param field  - Field to take the terms from
+     * @param count  - Maximum number of terms
+     * @return the terms
+     * @throws IOException
+     */
+
+    public static List<BytesRef> probeTerms(IndexReader reader, String field, int count) throws IOException {
+        List<BytesRef> terms = new ArrayList<BytesRef>();
+        Terms fieldTerms = MultiFields.getTerms(reader, field);
+        if (fieldTerms == null) {
+            return terms;
+        }
+        long size = fieldTerms.size();
+        long stride = size > 0 ? Math.max(1, size / count) : 1;
+        TermsEnum termsEnum = fieldTerms.iterator(null);
+        long ord = 0;
+        BytesRef term;
+        while ((term = termsEnum.next()) != null && terms.size() < count) {
+            if (ord++ % stride == 0) {
+                terms.add(BytesRef.deepCopyOf(term));
+            }
+        }
+        Collections.shuffle(terms, new Random(42));
+        return terms;
+    }
+
+    /**
+     * Looks every term up with seekExact in every segment and reads its docFreq. The terms are
+     * looked up once to warm up and then timed.
+     *
+     * @param reader - Reader of the index
+     * @param field  - Field of the terms
+     * @param terms  - Terms from {@link #probeTerms}
+     * @return average time of one lookup in microseconds
+     * @throws IOException
+     */
+
+    public static double lookupMicros(IndexReader reader, String field, List<BytesRef> terms) throws IOException {
+        if (terms.isEmpty()) {
+            return 0;
+        }
+        long nanos = 0;
+        for (int pass = 0; pass < 2; pass++) {
+            long start = System.nanoTime();
+            long found = 0;
+            for (AtomicReaderContext leaf : reader.leaves()) {
+                Terms leafTerms = leaf.reader().terms(field);
+                if (leafTerms == null) {
+                    continue;
+                }
+                TermsEnum termsEnum = leafTerms.iterator(null);
+                for (BytesRef term : terms) {
+                    if (termsEnum.seekExact(term)) {
+                        found += termsEnum.docFreq();
+                    }
+                }
+            }
+            nanos = System.nanoTime() - start;
+            if (found == 0) {
+                throw new IllegalStateException("None of the probe terms of " + field + " was found");
+            }
+        }
+        return nanos / 1e3 / terms.size();
+    }
+
+    /**
+     * Iterates over every posting of a field with frequencies, once to warm up and once timed.
+     *
+     * @param reader - Reader of the index
+     * @param field  - Field whose postings are read
+     * @return {number of postings, nanoseconds taken}
+     * @throws IOException
+     */
+
+    public static long[] iteratePostings(IndexReader reader, String field) throws IOException {
+        long postings = 0;
+        long nanos = 0;
+        for (int pass = 0; pass < 2; pass++) {
+            long start = System.nanoTime();
+            postings = 0;
+            long freqs = 0;
+            for (AtomicReaderContext leaf : reader.leaves()) {
+                Terms leafTerms = leaf.reader().terms(field);
+                if (leafTerms == null) {
+                    continue;
+                }
+                TermsEnum termsEnum = leafTerms.iterator(null);
+                DocsEnum docs = null;
+                while (termsEnum.next() != null) {
+                    docs = termsEnum.docs(null, docs, DocsEnum.FLAG_FREQS);
+                    while (docs.nextDoc() != DocIdSetIterator.NO_MORE_DOCS) {
+                        freqs += docs.freq();
+                        postings++;
+                    }
+                }
+            }
+            nanos = System.nanoTime() - start;
+            if (freqs < postings) {
+                throw new IllegalStateException("Postings of " + field + " without frequencies");
+            }
+        }
+        return new long[]{postings, nanos};
+    }
+
+    @Override
+    public String toString() {
+        return spec;
+    }
+}
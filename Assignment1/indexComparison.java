@@ -7,36 +7,50 @@
  *  2. SimpleAnalyzer
  *  3. StopAnalyzer
  *  4. KeywordAnalyzer
+ *  5. trecAnalyzer (an allocation-light StandardAnalyzer equivalent, see {@link trecAnalyzer})
  *
  * The program usage is given below:
  *
  * <tt>java IndexComparison <Corpus Directory> <Index Directory></tt>
  *
- * This code expects four different directories under the <Index Directory>
- * Four directories that are to be created are: <tt>StandardAnalyzer, SimpleAnalyzer, StopAnalyzer, KeywordAnalyzer</tt>
+ * This code expects five different directories under the <Index Directory>
+ * Five directories that are to be created are: <tt>StandardAnalyzer, SimpleAnalyzer, StopAnalyzer, KeywordAnalyzer, trecAnalyzer</tt>
+ *
+ * Options:
+ *  --single-pass  parse the corpus once and build all five indexes at the same time, then
+ *                 print the time, index size and statistics of each analyzer side by side
+ *  --incremental  only re-index new and changed files in each analyzer's index
+ *  --report FILE  write the per-stage figures of every run ({@link indexMetrics}) to FILE,
+ *                 as JSON or, for a <tt>.csv</tt> file name, as CSV
+ *  --progress N   print a progress line to stderr every N seconds
+ *  --corpus-cache DIR  read pre-parsed documents from DIR and cache every file parsed in
+ *                 this run there (see {@link corpusCache})
+ *  --directory M  directory implementation used to read the indexes for the statistics:
+ *                 auto, mmap, nio or ram (see {@link indexDirectory})
+ *  --codec SPEC   write the indexes with the postings formats of SPEC, e.g. "memory-docno" or
+ *                 "default;DOCNO=Memory" (see {@link indexCodec})
+ *  --compare-codecs SPEC,SPEC,...  build every analyzer's index once per codec under
+ *                 <tt><Index Directory>/<codec></tt> and print build time, index size, term lookup
+ *                 and postings iteration speed of every codec/analyzer combination
  *
  * @author Aravindh Varadharaju
  *
  */
-import org.apache.commons.lang3.StringUtils;
 import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.analysis.core.KeywordAnalyzer;
 import org.apache.lucene.analysis.core.SimpleAnalyzer;
 import org.apache.lucene.analysis.core.StopAnalyzer;
 import org.apache.lucene.analysis.standard.StandardAnalyzer;
-import org.apache.lucene.document.Document;
-import org.apache.lucene.document.StringField;
-import org.apache.lucene.document.TextField;
 import org.apache.lucene.index.*;
 import org.apache.lucene.store.Directory;
 import org.apache.lucene.store.FSDirectory;
 import org.apache.lucene.util.Version;
 
 import java.io.*;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.TimeUnit;
 
-import static org.apache.lucene.document.Field.Store.YES;
-
 //import org.apache.lucene.util.BytesRef;
 
 public class indexComparison {
@@ -55,11 +69,20 @@ public class indexComparison {
     public static final String TERMINATING_TEXT = "</TEXT>";
 
 
+    final List<indexMetrics> runs = new ArrayList<indexMetrics>();
+    int progressSeconds;
+    String directoryMode = "auto";
+    corpusCache corpusCache;
+    indexCodec codec;
+
+    static final int PROBE_TERMS = 5000;
+
     public static final Analyzer[] analyzers = new Analyzer[]{
             new StandardAnalyzer(),
             new SimpleAnalyzer(),
             new StopAnalyzer(),
-            new KeywordAnalyzer()
+            new KeywordAnalyzer(),
+            new trecAnalyzer()
     };
 
     /**
@@ -70,103 +93,265 @@ public class indexComparison {
      * @throws IOException
      */
     public void index(String dataDir, String indexDir, Analyzer analyzer) throws IOException {
-        File[] dataFiles = new File(dataDir).listFiles(new FileFilter() {
-            @Override
-            public boolean accept(File file) {
-                boolean extn = false;
-                if (file.getName().toLowerCase().endsWith(".trectext"))
-                {
-                    extn = true;
-                }
-                return extn;
-            }
-        });
+        index(dataDir, indexDir, analyzer, false);
+    }
+
+    /**
+     * Builds the index for one analyzer, from scratch or incrementally. An incremental run only
+     * re-indexes the files that were added or changed since the last run of this analyzer and
+     * skips the final forceMerge(1); see {@link generateIndex#index(String, String, int, boolean)}.
+     *
+     * @param dataDir     - Directory where Corpus or data files are stored
+     * @param indexDir    - Directory where index files will be stored
+     * @param analyzer    - Type of Analyzer to be used for indexing activity
+     * @param incremental - Update the existing index instead of rebuilding it
+     * @throws IOException
+     */
+    public void index(String dataDir, String indexDir, Analyzer analyzer, boolean incremental) throws IOException {
+        File[] dataFiles = generateIndex.listDataFiles(dataDir);
+        String analyzerName = analyzerName(analyzer);
+        indexMetrics metrics = new indexMetrics(analyzerName);
+        metrics.input.cache = corpusCache;
+        runs.add(metrics);
+        File indexPath = new File(indexPath(indexDir, analyzer));
+        corpusManifest manifest = incremental ? corpusManifest.load(indexPath) : new corpusManifest();
+        List<String> removedFiles = manifest.removedFiles(dataFiles);
+        if (incremental) {
+            List<File> changedFiles = manifest.changedFiles(dataFiles);
+            dataFiles = changedFiles.toArray(new File[changedFiles.size()]);
+        }
         System.out.println("**************************************************************************");
         System.out.println("Number of files to be processed: "+(dataFiles.length));
-        String tmp = analyzer.getClass().getName();
-        String analyzerName = tmp.substring(tmp.lastIndexOf(".")+1);
-        String indexPath = indexDir+System.getProperty("file.separator")+analyzerName;
         System.out.println("------------------------------------");
         System.out.println("Analyzer Type: "+analyzerName);
         System.out.println("------------------------------------");
-        Directory directory = FSDirectory.open(new File(indexPath));
-        IndexWriterConfig iwc = new IndexWriterConfig(Version.LUCENE_4_10_0, analyzer);
-        iwc.setOpenMode(IndexWriterConfig.OpenMode.CREATE);
+        Directory directory = FSDirectory.open(indexPath);
+        IndexWriterConfig iwc = new IndexWriterConfig(Version.LUCENE_4_10_0, new timedAnalyzer(analyzer, metrics));
+        iwc.setOpenMode(incremental ? IndexWriterConfig.OpenMode.CREATE_OR_APPEND : IndexWriterConfig.OpenMode.CREATE);
+        if (codec != null) {
+            iwc.setCodec(codec);
+        }
         IndexWriter indexWriter = new IndexWriter(directory, iwc);
-        if (dataFiles != null) {
-            int fileNo=1;
-            for (File file : dataFiles) {
-                System.out.print("\r" + "Indexing file # " + Integer.toString(fileNo) + " : " + file.toString());
-                fileNo++;
-                FileInputStream fis = null;
-                BufferedInputStream bis = null;
-                DataInputStream dis = null;
-                String fileContent;
-                try {
-                    StringBuilder sbFile = new StringBuilder();
-                    BufferedReader bufferedReader = new BufferedReader(new InputStreamReader(new FileInputStream(file)));
-                    while (bufferedReader.ready()) {
-                        sbFile.append(bufferedReader.readLine());
+        metrics.totalFiles = dataFiles.length;
+        if (progressSeconds > 0) {
+            metrics.startProgress(progressSeconds, System.err);
+        }
+        if (incremental) {
+            long start = System.nanoTime();
+            generateIndex.deleteRecordedDocuments(indexWriter, manifest, dataFiles, removedFiles, indexSchema.DEFAULT);
+            metrics.stageDone(indexMetrics.DELETE, System.nanoTime() - start);
+        }
+        generateIndex.indexFiles(dataFiles, indexWriter, 1, metrics, manifest, incremental, indexSchema.DEFAULT, null);
+        metrics.documentsDone();
+        if (!incremental) {
+            long start = System.nanoTime();
+            indexWriter.forceMerge(1);
+            metrics.stageDone(indexMetrics.FORCE_MERGE, System.nanoTime() - start);
+        }
+        long start = System.nanoTime();
+        indexWriter.commit();
+        metrics.stageDone(indexMetrics.COMMIT, System.nanoTime() - start);
+        indexWriter.close();
+        metrics.finish();
+        for (String removed : removedFiles) {
+            manifest.remove(removed);
+        }
+        manifest.save(indexPath);
+        List<String> failedFiles = metrics.failedFiles();
+        if (!failedFiles.isEmpty()) {
+            throw new IOException(analyzerName + ": " + failedFiles.size() + " file(s) could not be read to the end: " + failedFiles);
+        }
+    }
+
+    /**
+     * Builds the index for every analyzer in a single pass over the corpus. Each document is
+     * read and parsed once and then handed to one IndexWriter per analyzer; the writers run on
+     * their own threads, so the indexes are built at the same time.
+     *
+     * @param dataDir  - Directory where Corpus or data files are stored
+     * @param indexDir - Directory where index files will be stored
+     * @return the writers, holding the time each analyzer spent adding, merging and committing
+     * @throws IOException
+     */
+
+    public queuedIndexWriter[] indexAll(String dataDir, String indexDir) throws IOException {
+        File[] dataFiles = generateIndex.listDataFiles(dataDir);
+        System.out.println("**************************************************************************");
+        System.out.println("Number of files to be processed: "+(dataFiles.length));
+        indexMetrics metrics = new indexMetrics("single-pass");
+        metrics.input.cache = corpusCache;
+        runs.add(metrics);
+        metrics.totalFiles = dataFiles.length;
+        queuedIndexWriter[] writers = new queuedIndexWriter[analyzers.length];
+        for (int i = 0; i < analyzers.length; i++) {
+            Directory directory = FSDirectory.open(new File(indexPath(indexDir, analyzers[i])));
+            IndexWriterConfig iwc = new IndexWriterConfig(Version.LUCENE_4_10_0, new timedAnalyzer(analyzers[i], metrics));
+            iwc.setOpenMode(IndexWriterConfig.OpenMode.CREATE);
+            if (codec != null) {
+                iwc.setCodec(codec);
+            }
+            writers[i] = new queuedIndexWriter(analyzerName(analyzers[i]), new IndexWriter(directory, iwc), 1024);
+            writers[i].start();
+        }
+        if (progressSeconds > 0) {
+            metrics.startProgress(progressSeconds, System.err);
+        }
+        int fileNo=1;
+        for (File file : dataFiles) {
+            System.out.print("\r" + "Indexing file # " + Integer.toString(fileNo) + " : " + file.toString());
+            fileNo++;
+            trecDocumentStream parser = null;
+            long fileStart = System.nanoTime();
+            long parseNanos = 0;
+            int docCount = 0;
+            try {
+                parser = metrics.input.open(file);
+                trecDocument doc;
+                long parseStart = System.nanoTime();
+                while ((doc = parser.next()) != null) {
+                    parseNanos += System.nanoTime() - parseStart;
+                    for (queuedIndexWriter writer : writers) {
+                        writer.add(doc);
                     }
-                    fileContent = sbFile.toString();
-                    String[] docs = StringUtils.substringsBetween(fileContent, DOC, TERMINATING_DOC);
-                    for (String doc : docs) {
-                        Document luceneDoc = new Document();
-                        String[] docno_array = StringUtils.substringsBetween(doc, DOCNO, TERMINATING_DOCNO);
-                        String docno = StringUtils.join(docno_array, " ");
-                        //System.out.println("DOC NO: "+docno);
-                        if (docno != null)
-                            luceneDoc.add(new StringField("DOCNO", docno, YES));
-                        //
-                        String[] head_array = StringUtils.substringsBetween(doc, HEAD, TERMINATING_HEAD);
-                        String head;
-                        head = StringUtils.join(head_array, " ");
-                        //System.out.println("HEAD: "+head);
-                        if (head != null)
-                            luceneDoc.add(new TextField("HEAD", head, YES));
-                        //
-                        String[] bylines_array = StringUtils.substringsBetween(doc, BYLINE, TERMINATING_BYLINE);
-                        String bylines = StringUtils.join(bylines_array, " ");
-                        //System.out.println("BYLINE: "+bylines);
-                        if (bylines != null)
-                            luceneDoc.add(new TextField("BYLINE", bylines, YES));
-                        //
-                        String[] dateline_array = StringUtils.substringsBetween(doc, DATELINE, TERMINATING_DATELINE);
-                        String dateline = StringUtils.join(dateline_array, " ");
-                        //System.out.println("DATELINE: "+dateline);
-                        if (dateline != null)
-                            luceneDoc.add(new TextField("DATELINE", dateline, YES));
-                        //
-                        String[] text_array = StringUtils.substringsBetween(doc, TEXT, TERMINATING_TEXT);
-                        //System.out.println("TEXT: "+text);
-                        String text = StringUtils.join(text_array, " ");
-                        if (text != null)
-                            luceneDoc.add(new TextField("TEXT", text, YES));
-                        indexWriter.addDocument(luceneDoc);
+                    docCount++;
+                    parseStart = System.nanoTime();
+                }
+                parseNanos += System.nanoTime() - parseStart;
+            } catch (InterruptedIOException e) {
+                throw e;
+            } catch (IOException e) {
+                e.printStackTrace();
+                metrics.fileFailed(file);
+                docCount = -1;
+            } finally {
+                metrics.addTime(indexMetrics.PARSE, parseNanos);
+                if (docCount >= 0) {
+                    metrics.fileDone(file, System.nanoTime() - fileStart, docCount);
+                }
+                try {
+                    if (parser != null) {
+                        parser.close();
                     }
-                } catch (IOException e) {
-                    e.printStackTrace();
-                } finally {
+                } catch (IOException ex) {
+                    ex.printStackTrace();
+                }
+            }
+        }
+        for (queuedIndexWriter writer : writers) {
+            writer.finish();
+        }
+        metrics.documentsDone();
+        for (queuedIndexWriter writer : writers) {
+            writer.await();
+            metrics.addTime(indexMetrics.ADD_DOCUMENT, writer.addNanos);
+            metrics.addTime(indexMetrics.FORCE_MERGE, writer.mergeNanos);
+            metrics.addTime(indexMetrics.COMMIT, writer.commitNanos);
+            metrics.addTime(indexMetrics.ADD_DOCUMENT + " " + writer.getName(), writer.addNanos);
+            metrics.addTime(indexMetrics.FORCE_MERGE + " " + writer.getName(), writer.mergeNanos);
+            metrics.addTime(indexMetrics.COMMIT + " " + writer.getName(), writer.commitNanos);
+        }
+        metrics.finish();
+        // the other files are indexed and committed all the same, but the comparison is incomplete
+        List<String> failedFiles = metrics.failedFiles();
+        if (!failedFiles.isEmpty()) {
+            throw new IOException(failedFiles.size() + " file(s) could not be read to the end: " + failedFiles);
+        }
+        return writers;
+    }
+
+    /**
+     * Prints the time, index size and getStats figures of every analyzer side by side.
+     *
+     * @param indexDir - Directory where index files are stored
+     * @param writers  - Writers returned by {@link #indexAll}
+     * @throws IOException
+     */
+
+    public void printComparison(String indexDir, queuedIndexWriter[] writers) throws IOException {
+        System.out.print("\n");
+        System.out.println("**************************************************************************");
+        System.out.println(String.format("%-18s %10s %10s %10s %12s %9s %10s %12s %12s %12s",
+                "Analyzer", "Time (s)", "Size (MB)", "Documents", "df(\"new\")", "ttf(\"new\")",
+                "Vocabulary", "Field docs", "Tokens", "Postings"));
+        for (int i = 0; i < analyzers.length; i++) {
+            Directory directory = indexDirectory.open(new File(indexPath(indexDir, analyzers[i])), directoryMode);
+            IndexReader indexReader = DirectoryReader.open(directory);
+            try {
+                indexStats stats = indexStats.collect(indexReader, "TEXT", "new");
+                queuedIndexWriter writer = writers[i];
+                double seconds = (writer.addNanos + writer.mergeNanos + writer.commitNanos) / 1e9;
+                System.out.println(String.format("%-18s %10.2f %10.2f %10d %12d %9d %10d %12d %12d %12d",
+                        writer.getName(), seconds, indexStats.sizeOf(directory) / (1024.0 * 1024.0),
+                        stats.numDocs, stats.termDocFreq, stats.termTotalFreq, stats.vocabularySize,
+                        stats.fieldDocCount, stats.sumTotalTermFreq, stats.sumDocFreq));
+            } finally {
+                indexReader.close();
+                directory.close();
+            }
+        }
+        System.out.println("**************************************************************************");
+    }
+
+    /**
+     * Builds the index of every analyzer once per codec and prints, for every combination, the
+     * build time, the index size, the average time of an exact DOCNO and TEXT term lookup and
+     * the rate at which the TEXT postings are iterated.
+     *
+     * @param dataDir  - Directory where Corpus or data files are stored
+     * @param indexDir - Directory under which one directory per codec is created
+     * @param codecs   - Codecs to compare
+     * @throws IOException
+     */
+
+    public void compareCodecs(String dataDir, String indexDir, List<indexCodec> codecs) throws IOException {
+        List<String> rows = new ArrayList<String>();
+        indexCodec previous = codec;
+        try {
+            for (indexCodec candidate : codecs) {
+                codec = candidate;
+                String codecDir = indexDir + System.getProperty("file.separator") + candidate.spec.replaceAll("[^A-Za-z0-9_-]+", "_");
+                for (Analyzer analyzer : analyzers) {
+                    long start = System.nanoTime();
+                    index(dataDir, codecDir, analyzer);
+                    double buildSeconds = (System.nanoTime() - start) / 1e9;
+                    Directory directory = indexDirectory.open(new File(indexPath(codecDir, analyzer)), directoryMode);
+                    IndexReader indexReader = DirectoryReader.open(directory);
                     try {
-                        if (dis != null) {
-                            dis.close();
-                        }
-                        if (bis != null) {
-                            bis.close();
-                        }
-                        if (fis != null) {
-                            fis.close();
-                        }
-                    } catch (IOException ex) {
-                        ex.printStackTrace();
+                        double docnoMicros = indexCodec.lookupMicros(indexReader, "DOCNO",
+                                indexCodec.probeTerms(indexReader, "DOCNO", PROBE_TERMS));
+                        double textMicros = indexCodec.lookupMicros(indexReader, "TEXT",
+                                indexCodec.probeTerms(indexReader, "TEXT", PROBE_TERMS));
+                        long[] postings = indexCodec.iteratePostings(indexReader, "TEXT");
+                        rows.add(String.format("%-24s %-18s %10.2f %10.2f %12.3f %12.3f %12d %12.1f", candidate.spec,
+                                analyzerName(analyzer), buildSeconds, indexStats.sizeOf(directory) / (1024.0 * 1024.0),
+                                docnoMicros, textMicros, postings[0], postings[0] / (postings[1] / 1e9) / 1e6));
+                    } finally {
+                        indexReader.close();
+                        directory.close();
                     }
                 }
             }
+        } finally {
+            codec = previous;
         }
-        indexWriter.forceMerge(1);
-        indexWriter.commit();
-        indexWriter.close();
+        System.out.print("\n");
+        System.out.println("**************************************************************************");
+        System.out.println("Lookups: average of up to " + PROBE_TERMS + " exact term lookups; postings: all TEXT postings with freqs");
+        System.out.println(String.format("%-24s %-18s %10s %10s %12s %12s %12s %12s", "Codec", "Analyzer", "Build (s)",
+                "Size (MB)", "DOCNO (us)", "TEXT (us)", "Postings", "M postings/s"));
+        for (String row : rows) {
+            System.out.println(row);
+        }
+        System.out.println("**************************************************************************");
+    }
+
+    static String analyzerName(Analyzer analyzer) {
+        String tmp = analyzer.getClass().getName();
+        return tmp.substring(tmp.lastIndexOf(".")+1);
+    }
 
+    static String indexPath(String indexDir, Analyzer analyzer) {
+        return indexDir+System.getProperty("file.separator")+analyzerName(analyzer);
     }
 
     /**
@@ -176,21 +361,20 @@ public class indexComparison {
      */
 
     public void getStats(String indexDir, Analyzer analyzer){
+        Directory directory = null;
         IndexReader indexReader=null;
         try {
-            String tmp = analyzer.getClass().getName();
-            String analyzerName = tmp.substring(tmp.lastIndexOf(".")+1);
-            String indexPath = indexDir+System.getProperty("file.separator")+analyzerName;
-            indexReader = DirectoryReader.open(FSDirectory.open(new File(indexPath)));
+            directory = indexDirectory.open(new File(indexPath(indexDir, analyzer)), directoryMode);
+            indexReader = DirectoryReader.open(directory);
+            indexStats stats = indexStats.collect(indexReader, "TEXT", "new");
             System.out.print("\n");
-            System.out.println("Total number of documents in the Corpus: " + indexReader.maxDoc());
-            System.out.println("Number of documents containing the term \"new\" for field \"TEXT\": "+indexReader.docFreq(new Term("TEXT","new")));
-            System.out.println("Number of occurences of \"new\" in the field \"TEXT\": "+indexReader.totalTermFreq(new Term("TEXT", "new")));
-            Terms vocabulary = MultiFields.getTerms(indexReader, "TEXT");
-            System.out.println("Size of the vocabulary for this field: "+vocabulary.size());
-            System.out.println("Number of documents that have at least one term for this field: "+vocabulary.getDocCount());
-            System.out.println("Number of tokens for this field: "+vocabulary.getSumTotalTermFreq());
-            System.out.println("Number of postings for this field: "+vocabulary.getSumDocFreq());
+            System.out.println("Total number of documents in the Corpus: " + stats.numDocs);
+            System.out.println("Number of documents containing the term \"new\" for field \"TEXT\": "+stats.termDocFreq);
+            System.out.println("Number of occurences of \"new\" in the field \"TEXT\": "+stats.termTotalFreq);
+            System.out.println("Size of the vocabulary for this field: "+stats.vocabularySize);
+            System.out.println("Number of documents that have at least one term for this field: "+stats.fieldDocCount);
+            System.out.println("Number of tokens for this field: "+stats.sumTotalTermFreq);
+            System.out.println("Number of postings for this field: "+stats.sumDocFreq);
             /*
             TermsEnum iterator = vocabulary.iterator(null);
             System.out.println("\n*******Vocabulary-Start**********");
@@ -210,6 +394,9 @@ public class indexComparison {
                 if (indexReader != null) {
                     indexReader.close();
                 }
+                if (directory != null) {
+                    directory.close();
+                }
             } catch (IOException e) {
                 e.printStackTrace();
             }
@@ -218,21 +405,116 @@ public class indexComparison {
 
     public static void main(String[] args) {
 	// write your code here
-        if(args.length != 2) {
-            System.out.println("Usage: java " + indexComparison.class.getName() + " <Corpus Directory> <Index Directory>");
+        if(args.length < 2) {
+            System.out.println("Usage: java " + indexComparison.class.getName() + " <Corpus Directory> <Index Directory> [--single-pass | --incremental] [--report <file.json|file.csv>] [--progress seconds] [--directory auto|mmap|nio|ram] [--corpus-cache <dir>] [--codec <spec>] [--compare-codecs <spec,spec,...>]");
             System.exit(-1);
         }
         String docDir = args[0];    // Path where the corpus is stored
         String indexDir = args[1];  // Path where index files will be written to
+        boolean singlePass = false;
+        boolean incremental = false;
+        String reportFile = null;
+        int progressSeconds = 0;
+        String directoryMode = "auto";
+        String cacheDir = null;
+        String codecSpec = null;
+        String compareCodecs = null;
+        for (int i = 2; i < args.length; i++) {
+            if (args[i].equals("--single-pass")) {
+                singlePass = true;
+            } else if (args[i].equals("--incremental")) {
+                incremental = true;
+            } else if (args[i].equals("--report") && i + 1 < args.length) {
+                reportFile = args[++i];
+            } else if (args[i].equals("--progress") && i + 1 < args.length) {
+                progressSeconds = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("--corpus-cache") && i + 1 < args.length) {
+                cacheDir = args[++i];
+            } else if (args[i].equals("--directory") && i + 1 < args.length) {
+                directoryMode = args[++i];
+            } else if (args[i].equals("--codec") && i + 1 < args.length) {
+                codecSpec = args[++i];
+            } else if (args[i].equals("--compare-codecs") && i + 1 < args.length) {
+                compareCodecs = args[++i];
+            } else {
+                System.out.println("Unknown option: " + args[i]);
+                System.exit(-1);
+            }
+        }
+        if (singlePass && incremental) {
+            System.out.println("--single-pass always rebuilds the indexes and cannot be combined with --incremental");
+            System.exit(-1);
+        }
+        if (compareCodecs != null && (singlePass || incremental || codecSpec != null)) {
+            System.out.println("--compare-codecs builds every index from scratch and cannot be combined with --single-pass, --incremental or --codec");
+            System.exit(-1);
+        }
+        List<indexCodec> codecs = new ArrayList<indexCodec>();
+        try {
+            if (codecSpec != null) {
+                codecs.add(indexCodec.parse(codecSpec));
+            }
+            if (compareCodecs != null) {
+                for (String spec : compareCodecs.split(",")) {
+                    codecs.add(indexCodec.parse(spec.trim()));
+                }
+            }
+        } catch (IllegalArgumentException e) {
+            System.out.println(e.getMessage());
+            System.exit(-1);
+        }
         long startTime = System.currentTimeMillis();
+        // a failed build exits non-zero, so a broken comparison does not look like a finished one
+        boolean failed = false;
         indexComparison obj = new indexComparison();
-        for (Analyzer analyzer : analyzers) {
+        obj.progressSeconds = progressSeconds;
+        obj.directoryMode = directoryMode;
+        if (cacheDir != null) {
             try {
-                obj.index(docDir, indexDir, analyzer);
+                obj.corpusCache = new corpusCache(new File(cacheDir));
             } catch (IOException e) {
                 e.printStackTrace();
+                System.exit(-1);
+            }
+        }
+        if (codecSpec != null) {
+            obj.codec = codecs.get(0);
+        }
+        if (compareCodecs != null) {
+            try {
+                obj.compareCodecs(docDir, indexDir, codecs);
+            } catch (IOException e) {
+                e.printStackTrace();
+                failed = true;
+            }
+        } else if (singlePass) {
+            try {
+                obj.printComparison(indexDir, obj.indexAll(docDir, indexDir));
+            } catch (IOException e) {
+                e.printStackTrace();
+                failed = true;
+            }
+        } else {
+            for (Analyzer analyzer : analyzers) {
+                try {
+                    obj.index(docDir, indexDir, analyzer, incremental);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                    failed = true;
+                }
+                obj.getStats(indexDir, analyzer);
+            }
+        }
+        for (indexMetrics run : obj.runs) {
+            run.printSummary(System.out);
+        }
+        if (reportFile != null) {
+            try {
+                indexMetrics.writeReport(new File(reportFile), obj.runs);
+            } catch (IOException e) {
+                e.printStackTrace();
+                failed = true;
             }
-            obj.getStats(indexDir, analyzer);
         }
         long endTime = System.currentTimeMillis();
         long millis = endTime - startTime;
@@ -241,5 +523,8 @@ public class indexComparison {
                 TimeUnit.MILLISECONDS.toSeconds(millis) -
                         TimeUnit.MINUTES.toSeconds(TimeUnit.MILLISECONDS.toMinutes(millis))
         ));
+        if (failed) {
+            System.exit(1);
+        }
     }
 }
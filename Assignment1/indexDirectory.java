@@ -0,0 +1,329 @@
+/**
+ * indexDirectory opens an index with an explicitly chosen Directory implementation instead of
+ * letting FSDirectory.open pick one, and warms a reader up before it serves queries. Modes:
+ *
+ *  auto - FSDirectory.open, which picks mmap on 64 bit JVMs (the previous behaviour)
+ *  mmap - MMapDirectory; the index is mapped and read through the OS page cache
+ *  nio  - NIOFSDirectory; positional reads into Lucene's own buffers
+ *  ram  - the whole index is copied onto the heap in a RAMDirectory; only for small indexes
+ *
+ * Run on its own, it opens the index once per mode and reports the open time, the latency of
+ * probe queries on the fresh reader (cold), the warm-up time and the latency of the same queries
+ * afterwards (warm). Every mode is measured in a JVM of its own, so no mode profits from code the
+ * JIT compiled for an earlier one. The probe terms are picked by the parent and handed to the
+ * workers in a temporary file, so a worker touches the index only through the mode it measures.
+ * Before the first mode the index files are read once, so all
+ * modes start with the index in the OS page cache; "cold" is therefore cold for Lucene and the
+ * JVM but not for the disk. The program usage is given below:
+ *
+ * <tt>java indexDirectory <Index Directory> [--modes mmap,nio,ram] [--queries N]</tt>
+ *
+ */
+import org.apache.lucene.index.*;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.similarities.BM25Similarity;
+import org.apache.lucene.store.*;
+import org.apache.lucene.util.BytesRef;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class indexDirectory {
+
+    public static final String[] MODES = {"auto", "mmap", "nio", "ram"};
+    private static final String WORKER_RESULT = "RESULT\t";
+
+    /**
+     *
+     * @param dir  - Directory holding the index
+     * @param mode - One of {@link #MODES}
+     * @return the Directory for the index
+     * @throws IOException
+     */
+
+    public static Directory open(File dir, String mode) throws IOException {
+        if (mode.equals("auto")) {
+            return FSDirectory.open(dir);
+        } else if (mode.equals("mmap")) {
+            return new MMapDirectory(dir);
+        } else if (mode.equals("nio")) {
+            return new NIOFSDirectory(dir);
+        } else if (mode.equals("ram")) {
+            Directory onDisk = FSDirectory.open(dir);
+            try {
+                return new RAMDirectory(onDisk, IOContext.READONCE);
+            } finally {
+                onDisk.close();
+            }
+        }
+        throw new IllegalArgumentException("Unknown directory mode: " + mode + ", expected one of " + Arrays.toString(MODES));
+    }
+
+    /**
+     * Reads the terms dictionary, every postings list (with positions where indexed), the norms
+     * and the DOCNO doc values of every segment once, so that queries do not pay for the first
+     * read of those pages. Stored fields are left alone; they are only read for returned hits.
+     *
+     * @param reader - Reader to be warmed up
+     * @return number of postings read
+     * @throws IOException
+     */
+
+    public static long warmUp(IndexReader reader) throws IOException {
+        long postings = 0;
+        for (AtomicReaderContext leaf : reader.leaves()) {
+            AtomicReader segment = leaf.reader();
+            Fields fields = segment.fields();
+            if (fields == null) {
+                continue;
+            }
+            for (String field : fields) {
+                TermsEnum termsEnum = fields.terms(field).iterator(null);
+                DocsEnum docs = null;
+                DocsAndPositionsEnum positions = null;
+                while (termsEnum.next() != null) {
+                    positions = termsEnum.docsAndPositions(null, positions);
+                    if (positions != null) {
+                        while (positions.nextDoc() != DocIdSetIterator.NO_MORE_DOCS) {
+                            for (int i = positions.freq(); i > 0; i--) {
+                                positions.nextPosition();
+                            }
+                            postings++;
+                        }
+                    } else {
+                        docs = termsEnum.docs(null, docs);
+                        while (docs.nextDoc() != DocIdSetIterator.NO_MORE_DOCS) {
+                            postings++;
+                        }
+                    }
+                }
+                NumericDocValues norms = segment.getNormValues(field);
+                if (norms != null) {
+                    for (int doc = 0; doc < segment.maxDoc(); doc++) {
+                        norms.get(doc);
+                    }
+                }
+            }
+            SortedDocValues docnos = segment.getSortedDocValues("DOCNO");
+            if (docnos != null) {
+                for (int ord = 0; ord < docnos.getValueCount(); ord++) {
+                    docnos.lookupOrd(ord);
+                }
+            }
+        }
+        return postings;
+    }
+
+    // picks query terms spread evenly over the TEXT vocabulary of the first segment
+    private static List<Term> probeTerms(File dir, int count) throws IOException {
+        List<Term> terms = new ArrayList<Term>();
+        Directory directory = FSDirectory.open(dir);
+        IndexReader reader = DirectoryReader.open(directory);
+        try {
+            if (reader.leaves().isEmpty()) {
+                return terms;
+            }
+            Terms text = reader.leaves().get(0).reader().terms("TEXT");
+            if (text == null) {
+                return terms;
+            }
+            long size = text.size();
+            long stride = Math.max(1, size / count);
+            TermsEnum termsEnum = text.iterator(null);
+            long ord = 0;
+            BytesRef term;
+            while ((term = termsEnum.next()) != null && terms.size() < count) {
+                if (ord++ % stride == 0) {
+                    terms.add(new Term("TEXT", BytesRef.deepCopyOf(term)));
+                }
+            }
+            return terms;
+        } finally {
+            reader.close();
+            directory.close();
+        }
+    }
+
+    private static long[] runQueries(IndexSearcher searcher, List<Term> terms) throws IOException {
+        long[] latencies = new long[terms.size()];
+        for (int i = 0; i < latencies.length; i++) {
+            long start = System.nanoTime();
+            searcher.search(new TermQuery(terms.get(i)), 10);
+            latencies[i] = System.nanoTime() - start;
+        }
+        return latencies;
+    }
+
+    private static double percentileMillis(long[] latencies, double percentile) {
+        long[] sorted = latencies.clone();
+        Arrays.sort(sorted);
+        return indexMetrics.percentile(sorted, percentile) / 1e6;
+    }
+
+    // reads every index file once, so that each mode finds the same pages in the OS cache
+    private static void primePageCache(File dir) throws IOException {
+        File[] files = dir.listFiles();
+        byte[] buffer = new byte[64 * 1024];
+        for (File file : files == null ? new File[0] : files) {
+            if (!file.isFile()) {
+                continue;
+            }
+            InputStream in = new FileInputStream(file);
+            try {
+                while (in.read(buffer) != -1) {
+                }
+            } finally {
+                in.close();
+            }
+        }
+    }
+
+    // opens the index with one mode and measures it; the report line of the mode
+    private static String measure(File dir, String mode, List<Term> terms) throws IOException {
+        long start = System.nanoTime();
+        Directory directory = open(dir, mode);
+        IndexReader reader = DirectoryReader.open(directory);
+        double openMillis = (System.nanoTime() - start) / 1e6;
+        try {
+            IndexSearcher searcher = new IndexSearcher(reader);
+            searcher.setSimilarity(new BM25Similarity());
+            long[] cold = runQueries(searcher, terms);
+            start = System.nanoTime();
+            warmUp(reader);
+            double warmUpMillis = (System.nanoTime() - start) / 1e6;
+            long[] warm = runQueries(searcher, terms);
+            return String.format("%-6s %10.1f %10.3f %10.3f %10.3f %12.1f %10.3f %10.3f", mode, openMillis,
+                    cold.length == 0 ? 0 : cold[0] / 1e6, percentileMillis(cold, 50), percentileMillis(cold, 99),
+                    warmUpMillis, percentileMillis(warm, 50), percentileMillis(warm, 99));
+        } finally {
+            reader.close();
+            directory.close();
+        }
+    }
+
+    private static void writeTerms(List<Term> terms, File file) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+        try {
+            out.writeInt(terms.size());
+            for (Term term : terms) {
+                out.writeUTF(term.field());
+                BytesRef bytes = term.bytes();
+                out.writeInt(bytes.length);
+                out.write(bytes.bytes, bytes.offset, bytes.length);
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    private static List<Term> readTerms(File file) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            int count = in.readInt();
+            List<Term> terms = new ArrayList<Term>(count);
+            for (int i = 0; i < count; i++) {
+                String field = in.readUTF();
+                byte[] bytes = new byte[in.readInt()];
+                in.readFully(bytes);
+                terms.add(new Term(field, new BytesRef(bytes)));
+            }
+            return terms;
+        } finally {
+            in.close();
+        }
+    }
+
+    // runs one mode in a JVM of its own and returns its report line
+    private static String measureInWorker(File dir, String mode, File termsFile) throws IOException {
+        String java = new File(new File(System.getProperty("java.home"), "bin"), "java").getPath();
+        ProcessBuilder builder = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+                indexDirectory.class.getName(), dir.getPath(), "--modes", mode, "--worker", termsFile.getPath());
+        builder.redirectErrorStream(true);
+        Process worker = builder.start();
+        String result = null;
+        StringBuilder output = new StringBuilder();
+        BufferedReader in = new BufferedReader(new InputStreamReader(worker.getInputStream(), "UTF-8"));
+        try {
+            String line;
+            while ((line = in.readLine()) != null) {
+                if (line.startsWith(WORKER_RESULT)) {
+                    result = line.substring(WORKER_RESULT.length());
+                } else {
+                    output.append(line).append('\n');
+                }
+            }
+        } finally {
+            in.close();
+        }
+        try {
+            int exitCode = worker.waitFor();
+            if (exitCode != 0 || result == null) {
+                throw new IOException("Worker for mode " + mode + " failed with exit code " + exitCode + ":\n" + output);
+            }
+        } catch (InterruptedException e) {
+            worker.destroy();
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the " + mode + " worker");
+        }
+        return result;
+    }
+
+    public static void main(String[] args) {
+        if (args.length < 1) {
+            System.out.println("Usage: java " + indexDirectory.class.getName() + " <Index Directory> [--modes mmap,nio,ram] [--queries N]");
+            System.exit(-1);
+        }
+        File dir = new File(args[0]);
+        String[] modes = {"mmap", "nio", "ram"};
+        int queries = 1000;
+        File workerTerms = null;
+        for (int i = 1; i < args.length; i++) {
+            if (args[i].equals("--modes") && i + 1 < args.length) {
+                modes = args[++i].split(",");
+            } else if (args[i].equals("--queries") && i + 1 < args.length) {
+                queries = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("--worker") && i + 1 < args.length) {
+                // internal: measure the single mode with the parent's probe terms and print its line
+                workerTerms = new File(args[++i]);
+            } else {
+                System.out.println("Unknown option: " + args[i]);
+                System.exit(-1);
+            }
+        }
+        try {
+            if (workerTerms != null) {
+                System.out.println(WORKER_RESULT + measure(dir, modes[0], readTerms(workerTerms)));
+                return;
+            }
+            List<Term> terms = probeTerms(dir, queries);
+            File termsFile = File.createTempFile("probe-terms", ".bin");
+            List<String> report = new ArrayList<String>();
+            try {
+                writeTerms(terms, termsFile);
+                primePageCache(dir);
+                for (String mode : modes) {
+                    report.add(measureInWorker(dir, mode, termsFile));
+                }
+            } finally {
+                termsFile.delete();
+            }
+            System.out.println("**************************************************************************");
+            System.out.println(terms.size() + " TEXT term queries per pass, latencies in ms");
+            System.out.println("Each mode ran in a fresh JVM; the index files were read once beforehand, so every mode");
+            System.out.println("started with them in the OS page cache");
+            System.out.println(String.format("%-6s %10s %10s %10s %10s %12s %10s %10s", "Mode", "Open", "First",
+                    "Cold p50", "Cold p99", "Warm-up", "Warm p50", "Warm p99"));
+            for (String line : report) {
+                System.out.println(line);
+            }
+            System.out.println("**************************************************************************");
+        } catch (IOException e) {
+            e.printStackTrace();
+            System.exit(1);
+        }
+    }
+}
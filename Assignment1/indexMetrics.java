@@ -0,0 +1,404 @@
+/**
+ * indexMetrics collects per-stage measurements of one indexing run: time, documents/sec,
+ * bytes/sec and heap in use for I/O, parsing, analysis, addDocument, deletes, forceMerge(1)
+ * and commit(), plus the latency of every corpus file. At the end of the run the figures are
+ * printed and can be written to a JSON or CSV report; while the run is going a progress line
+ * can be printed periodically.
+ *
+ * The per-document stages are summed over all indexing threads, so with several threads they
+ * add up to more than the wall clock time. I/O is the time spent waiting for bytes from the
+ * corpus streams and is taken out of the parse time. Analysis happens inside addDocument; it is
+ * estimated by timing every 64th token through a {@link timedAnalyzer} and is taken out of the
+ * addDocument time.
+ *
+ */
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class indexMetrics {
+
+    public static final String IO = "io";
+    public static final String PARSE = "parse";
+    public static final String ANALYSIS = "analysis";
+    public static final String ADD_DOCUMENT = "addDocument";
+    public static final String DELETE = "deleteDocuments";
+    public static final String FORCE_MERGE = "forceMerge";
+    public static final String COMMIT = "commit";
+
+    private static final int SLOWEST_FILES = 10;
+    private static final MemoryMXBean MEMORY = ManagementFactory.getMemoryMXBean();
+
+    public final String name;
+    public final corpusInput input = new corpusInput();
+    public final AtomicLong documents = new AtomicLong();
+    public final AtomicLong bytes = new AtomicLong();
+    public int totalFiles;
+
+    private final long startNanos = System.nanoTime();
+    private long endNanos;
+    private final Map<String, AtomicLong> stageNanos = new LinkedHashMap<String, AtomicLong>();
+    private final Map<String, Long> stageHeap = new HashMap<String, Long>();
+    private final List<String> fileNames = new ArrayList<String>();
+    private final List<long[]> fileTimings = new ArrayList<long[]>();
+    private final List<String> failedFiles = new ArrayList<String>();
+    private final AtomicLong peakHeap = new AtomicLong();
+    private ScheduledExecutorService progress;
+
+    public indexMetrics(String name) {
+        this.name = name;
+        for (String stage : new String[]{IO, PARSE, ANALYSIS, ADD_DOCUMENT, DELETE, FORCE_MERGE, COMMIT}) {
+            stageNanos.put(stage, new AtomicLong());
+        }
+    }
+
+    /**
+     * Adds time to a stage. Stages that are not known yet are created.
+     *
+     * @param stage - Name of the stage
+     * @param nanos - Time spent in nanoseconds
+     */
+
+    public void addTime(String stage, long nanos) {
+        AtomicLong total;
+        synchronized (stageNanos) {
+            total = stageNanos.get(stage);
+            if (total == null) {
+                total = new AtomicLong();
+                stageNanos.put(stage, total);
+            }
+        }
+        total.addAndGet(nanos);
+    }
+
+    /**
+     * Adds the time of a stage that has just finished and records the heap in use after it.
+     *
+     * @param stage - Name of the stage
+     * @param nanos - Time spent in nanoseconds
+     */
+
+    public void stageDone(String stage, long nanos) {
+        addTime(stage, nanos);
+        synchronized (stageHeap) {
+            stageHeap.put(stage, sampleHeap());
+        }
+    }
+
+    /**
+     *
+     * @param file  - Corpus file that has been indexed
+     * @param nanos - Time taken to read, parse and add all of its documents
+     * @param docs  - Number of documents in the file
+     */
+
+    public void fileDone(File file, long nanos, int docs) {
+        documents.addAndGet(docs);
+        bytes.addAndGet(file.length());
+        synchronized (fileTimings) {
+            fileNames.add(file.getName());
+            fileTimings.add(new long[]{nanos, docs, file.length()});
+        }
+        sampleHeap();
+    }
+
+    /**
+     *
+     * @param file - Corpus file that could not be read to the end
+     */
+
+    public void fileFailed(File file) {
+        synchronized (failedFiles) {
+            failedFiles.add(file.getName());
+        }
+    }
+
+    /**
+     *
+     * @return names of the files that could not be read to the end
+     */
+
+    public List<String> failedFiles() {
+        synchronized (failedFiles) {
+            return new ArrayList<String>(failedFiles);
+        }
+    }
+
+    /**
+     * Marks the end of the document stages. I/O, parse, analysis and addDocument run
+     * interleaved, so each of them is given the peak heap seen while documents were added.
+     */
+
+    public void documentsDone() {
+        long peak = peakHeap.get();
+        synchronized (stageHeap) {
+            for (String stage : new String[]{IO, PARSE, ANALYSIS, ADD_DOCUMENT}) {
+                stageHeap.put(stage, peak);
+            }
+        }
+    }
+
+    public long sampleHeap() {
+        long used = MEMORY.getHeapMemoryUsage().getUsed();
+        long peak;
+        while (used > (peak = peakHeap.get()) && !peakHeap.compareAndSet(peak, used)) {
+            // retry until the peak is at least the current value
+        }
+        return used;
+    }
+
+    /**
+     * Prints a progress line every <tt>seconds</tt> seconds until {@link #finish} is called.
+     *
+     * @param seconds - Interval between progress lines
+     * @param out     - Stream the progress lines are printed to
+     */
+
+    public void startProgress(int seconds, final PrintStream out) {
+        progress = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "progress-" + name);
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        progress.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                double elapsed = (System.nanoTime() - startNanos) / 1e9;
+                int files;
+                synchronized (fileTimings) {
+                    files = fileTimings.size();
+                }
+                out.println(String.format("[%s] %.0fs: %d/%d files, %d docs (%.1f docs/sec), %.2f MB (%.2f MB/sec), heap %d MB",
+                        name, elapsed, files, totalFiles, documents.get(), documents.get() / elapsed,
+                        bytes.get() / 1048576.0, bytes.get() / 1048576.0 / elapsed, sampleHeap() >> 20));
+            }
+        }, seconds, seconds, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Ends the run: stops the progress feed and moves the I/O and analysis time out of the parse
+     * and addDocument stages they were measured in.
+     */
+
+    public void finish() {
+        if (progress != null) {
+            progress.shutdownNow();
+        }
+        endNanos = System.nanoTime();
+        long io = input.ioNanos.get();
+        stageNanos.get(IO).set(io);
+        stageNanos.get(PARSE).set(Math.max(0, stageNanos.get(PARSE).get() - io));
+        long analysis = stageNanos.get(ANALYSIS).get();
+        stageNanos.get(ADD_DOCUMENT).set(Math.max(0, stageNanos.get(ADD_DOCUMENT).get() - analysis));
+    }
+
+    /**
+     *
+     * @param stage - Name of the stage
+     * @return time recorded for the stage so far, in seconds
+     */
+
+    public double stageSeconds(String stage) {
+        AtomicLong total;
+        synchronized (stageNanos) {
+            total = stageNanos.get(stage);
+        }
+        return total == null ? 0 : total.get() / 1e9;
+    }
+
+    public double wallSeconds() {
+        return ((endNanos == 0 ? System.nanoTime() : endNanos) - startNanos) / 1e9;
+    }
+
+    /**
+     *
+     * @param percentile - Percentile between 0 and 100
+     * @return the file latency at the percentile, in nanoseconds
+     */
+
+    public long fileLatency(double percentile) {
+        long[] latencies;
+        synchronized (fileTimings) {
+            latencies = new long[fileTimings.size()];
+            for (int i = 0; i < latencies.length; i++) {
+                latencies[i] = fileTimings.get(i)[0];
+            }
+        }
+        Arrays.sort(latencies);
+        return percentile(latencies, percentile);
+    }
+
+    /**
+     * Nearest-rank percentile, shared by every latency report.
+     *
+     * @param sorted     - Values in ascending order
+     * @param percentile - Percentile between 0 and 100
+     * @return the value at the percentile, or 0 if there are no values
+     */
+
+    public static long percentile(long[] sorted, double percentile) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int index = (int) Math.ceil(percentile / 100.0 * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(index, sorted.length - 1))];
+    }
+
+    private List<Integer> slowestFiles() {
+        List<Integer> order = new ArrayList<Integer>();
+        synchronized (fileTimings) {
+            for (int i = 0; i < fileTimings.size(); i++) {
+                order.add(i);
+            }
+        }
+        Collections.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return Long.compare(fileTimings.get(b)[0], fileTimings.get(a)[0]);
+            }
+        });
+        return order.subList(0, Math.min(SLOWEST_FILES, order.size()));
+    }
+
+    public void printSummary(PrintStream out) {
+        out.print("\n");
+        out.println("**************************************************************************");
+        out.println(String.format("Run: %s, %d files, %d documents, %.2f MB in %.2f sec (%.1f docs/sec, %.2f MB/sec), peak heap %d MB",
+                name, fileTimings.size(), documents.get(), bytes.get() / 1048576.0, wallSeconds(),
+                documents.get() / wallSeconds(), bytes.get() / 1048576.0 / wallSeconds(), peakHeap.get() >> 20));
+        out.println(String.format("%-28s %10s %14s %12s %10s", "Stage", "Time (s)", "Docs/sec", "MB/sec", "Heap (MB)"));
+        for (Map.Entry<String, AtomicLong> stage : stageNanos.entrySet()) {
+            double seconds = stage.getValue().get() / 1e9;
+            Long heap = stageHeap.get(stage.getKey());
+            out.println(String.format("%-28s %10.2f %14.1f %12.2f %10s", stage.getKey(), seconds,
+                    seconds > 0 ? documents.get() / seconds : 0, seconds > 0 ? bytes.get() / 1048576.0 / seconds : 0,
+                    heap == null ? "-" : Long.toString(heap >> 20)));
+        }
+        out.println(String.format("File latency: p50 %.1f ms, p90 %.1f ms, p99 %.1f ms, max %.1f ms",
+                fileLatency(50) / 1e6, fileLatency(90) / 1e6, fileLatency(99) / 1e6, fileLatency(100) / 1e6));
+        out.println("Slowest files:");
+        for (int i : slowestFiles()) {
+            long[] timing = fileTimings.get(i);
+            out.println(String.format("  %10.1f ms %8d docs %12d bytes  %s", timing[0] / 1e6, timing[1], timing[2], fileNames.get(i)));
+        }
+        out.println("**************************************************************************");
+    }
+
+    /**
+     * Writes the report of one or more runs. The format follows the file extension: a
+     * <tt>.csv</tt> file gets one <tt>run,section,name,value</tt> row per figure, anything else
+     * gets a JSON array with one object per run.
+     *
+     * @param file - Report file
+     * @param runs - Finished runs
+     * @throws IOException
+     */
+
+    public static void writeReport(File file, List<indexMetrics> runs) throws IOException {
+        PrintWriter out = new PrintWriter(new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8")));
+        try {
+            if (file.getName().toLowerCase().endsWith(".csv")) {
+                out.println("run,section,name,value");
+                for (indexMetrics run : runs) {
+                    run.writeCsv(out);
+                }
+            } else {
+                out.println("[");
+                for (int i = 0; i < runs.size(); i++) {
+                    runs.get(i).writeJson(out);
+                    out.println(i < runs.size() - 1 ? "," : "");
+                }
+                out.println("]");
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    private void writeCsv(PrintWriter out) {
+        String run = csv(name);
+        out.println(run + ",run,wall_seconds," + wallSeconds());
+        out.println(run + ",run,files," + fileTimings.size());
+        out.println(run + ",run,documents," + documents.get());
+        out.println(run + ",run,bytes," + bytes.get());
+        out.println(run + ",run,peak_heap_bytes," + peakHeap.get());
+        for (Map.Entry<String, AtomicLong> stage : stageNanos.entrySet()) {
+            double seconds = stage.getValue().get() / 1e9;
+            out.println(run + ",stage_seconds," + csv(stage.getKey()) + "," + seconds);
+            out.println(run + ",stage_docs_per_sec," + csv(stage.getKey()) + "," + (seconds > 0 ? documents.get() / seconds : 0));
+            out.println(run + ",stage_bytes_per_sec," + csv(stage.getKey()) + "," + (seconds > 0 ? bytes.get() / seconds : 0));
+            if (stageHeap.containsKey(stage.getKey())) {
+                out.println(run + ",stage_heap_bytes," + csv(stage.getKey()) + "," + stageHeap.get(stage.getKey()));
+            }
+        }
+        for (int p : new int[]{50, 90, 99, 100}) {
+            out.println(run + ",file_latency_ms,p" + p + "," + fileLatency(p) / 1e6);
+        }
+        for (int i : slowestFiles()) {
+            out.println(run + ",slowest_file_ms," + csv(fileNames.get(i)) + "," + fileTimings.get(i)[0] / 1e6);
+        }
+    }
+
+    private void writeJson(PrintWriter out) {
+        out.println("  {");
+        out.println("    \"run\": " + json(name) + ",");
+        out.println("    \"wallSeconds\": " + wallSeconds() + ",");
+        out.println("    \"files\": " + fileTimings.size() + ",");
+        out.println("    \"documents\": " + documents.get() + ",");
+        out.println("    \"bytes\": " + bytes.get() + ",");
+        out.println("    \"peakHeapBytes\": " + peakHeap.get() + ",");
+        out.println("    \"stages\": {");
+        Iterator<Map.Entry<String, AtomicLong>> stages = stageNanos.entrySet().iterator();
+        while (stages.hasNext()) {
+            Map.Entry<String, AtomicLong> stage = stages.next();
+            double seconds = stage.getValue().get() / 1e9;
+            Long heap = stageHeap.get(stage.getKey());
+            out.println("      " + json(stage.getKey()) + ": {\"seconds\": " + seconds
+                    + ", \"docsPerSec\": " + (seconds > 0 ? documents.get() / seconds : 0)
+                    + ", \"bytesPerSec\": " + (seconds > 0 ? bytes.get() / seconds : 0)
+                    + ", \"heapBytes\": " + (heap == null ? "null" : heap) + "}" + (stages.hasNext() ? "," : ""));
+        }
+        out.println("    },");
+        out.println("    \"fileLatencyMs\": {\"p50\": " + fileLatency(50) / 1e6 + ", \"p90\": " + fileLatency(90) / 1e6
+                + ", \"p99\": " + fileLatency(99) / 1e6 + ", \"max\": " + fileLatency(100) / 1e6 + "},");
+        out.println("    \"slowestFiles\": [");
+        List<Integer> slowest = slowestFiles();
+        for (int i = 0; i < slowest.size(); i++) {
+            long[] timing = fileTimings.get(slowest.get(i));
+            out.println("      {\"file\": " + json(fileNames.get(slowest.get(i))) + ", \"ms\": " + timing[0] / 1e6
+                    + ", \"documents\": " + timing[1] + ", \"bytes\": " + timing[2] + "}" + (i < slowest.size() - 1 ? "," : ""));
+        }
+        out.println("    ]");
+        out.print("  }");
+    }
+
+    private static String csv(String value) {
+        if (value.contains(",") || value.contains("\"")) {
+            return "\"" + value.replace("\"", "\"\"") + "\"";
+        }
+        return value;
+    }
+
+    private static String json(String value) {
+        StringBuilder sb = new StringBuilder("\"");
+        for (char c : value.toCharArray()) {
+            if (c == '"' || c == '\\') {
+                sb.append('\\').append(c);
+            } else if (c < 0x20) {
+                sb.append(String.format("\\u%04x", (int) c));
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.append('"').toString();
+    }
+}
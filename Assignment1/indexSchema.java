@@ -0,0 +1,302 @@
+/**
+ * indexSchema decides how each field of a {@link trecDocument} is written to the index: whether
+ * it is stored, indexed, and with frequencies, positions and norms. DOCNO is always indexed as a
+ * single term so documents can be updated and deleted by it; it may in addition be kept as
+ * sorted doc values, which map a hit to its external ID without loading stored fields. The TEXT
+ * body may be kept out of the index in a compressed {@link bodyStore} sidecar that is only read
+ * when a body is asked for.
+ *
+ * A schema is given as a layout name, optionally followed by per-field overrides separated by
+ * <tt>;</tt>, for example <tt>compact;HEAD=index,freqs,positions</tt>. Field options are
+ * <tt>store</tt>, <tt>index</tt>, <tt>freqs</tt>, <tt>positions</tt> and <tt>norms</tt>; DOCNO
+ * also takes <tt>docvalues</tt>, and <tt>sidecar</tt> / <tt>nosidecar</tt> switch the body
+ * store. The layouts are:
+ *
+ *  default - every field stored; text fields with positions and norms (the original layout)
+ *  compact - DOCNO and HEAD stored, DOCNO doc values, TEXT body in the sidecar
+ *  minimal - nothing stored, DOCNO doc values, TEXT without positions, no norms on BYLINE and
+ *            DATELINE
+ *
+ */
+import org.apache.lucene.document.*;
+import org.apache.lucene.index.*;
+import org.apache.lucene.index.FieldInfo.IndexOptions;
+import org.apache.lucene.util.BytesRef;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+
+public class indexSchema {
+
+    public static final String[] FIELDS = {"DOCNO", "HEAD", "BYLINE", "DATELINE", "TEXT"};
+    public static final String[] LAYOUTS = {"default", "compact", "minimal"};
+
+    /**
+     * The original layout. It is never bound to a sidecar, so it can be shared.
+     */
+    public static final indexSchema DEFAULT = layout("default");
+
+    public static class fieldOptions {
+
+        public boolean store;
+        public boolean index = true;
+        public boolean freqs = true;
+        public boolean positions = true;
+        public boolean norms = true;
+
+        fieldOptions(boolean store) {
+            this.store = store;
+        }
+    }
+
+    public final String name;
+    private final Map<String, fieldOptions> fields = new LinkedHashMap<String, fieldOptions>();
+    // built once the options are final, so toDocument can read it from every thread without a lock
+    private Map<String, FieldType> types;
+    public boolean docnoDocValues;
+    public boolean sidecar;
+    private bodyStore bodies;
+
+    private indexSchema(String name) {
+        this.name = name;
+        for (String field : FIELDS) {
+            fields.put(field, new fieldOptions(true));
+        }
+    }
+
+    /**
+     *
+     * @param name - One of {@link #LAYOUTS}
+     * @return a new schema with that layout
+     */
+
+    public static indexSchema layout(String name) {
+        indexSchema schema = new indexSchema(name);
+        if (name.equals("compact")) {
+            schema.docnoDocValues = true;
+            schema.sidecar = true;
+            schema.options("BYLINE").store = false;
+            schema.options("DATELINE").store = false;
+            schema.options("TEXT").store = false;
+        } else if (name.equals("minimal")) {
+            schema.docnoDocValues = true;
+            for (String field : FIELDS) {
+                schema.options(field).store = false;
+            }
+            schema.options("TEXT").positions = false;
+            schema.options("BYLINE").norms = false;
+            schema.options("DATELINE").norms = false;
+        } else if (!name.equals("default")) {
+            throw new IllegalArgumentException("Unknown layout: " + name + ", expected one of " + Arrays.toString(LAYOUTS));
+        }
+        schema.buildTypes();
+        return schema;
+    }
+
+    /**
+     *
+     * @param spec - Layout name followed by <tt>;FIELD=option,option</tt> overrides
+     * @return the schema described by <tt>spec</tt>
+     */
+
+    public static indexSchema parse(String spec) {
+        String[] parts = spec.split(";");
+        indexSchema schema = layout(parts[0].trim());
+        for (int i = 1; i < parts.length; i++) {
+            String part = parts[i].trim();
+            if (part.equals("sidecar") || part.equals("nosidecar")) {
+                schema.sidecar = part.equals("sidecar");
+                continue;
+            }
+            int equals = part.indexOf('=');
+            if (equals < 0 || !schema.fields.containsKey(part.substring(0, equals))) {
+                throw new IllegalArgumentException("Expected FIELD=options with FIELD one of " + Arrays.toString(FIELDS) + ": " + part);
+            }
+            String field = part.substring(0, equals);
+            fieldOptions options = new fieldOptions(false);
+            options.index = options.freqs = options.positions = options.norms = false;
+            boolean docValues = false;
+            for (String option : part.substring(equals + 1).split(",")) {
+                option = option.trim();
+                if (option.equals("store")) {
+                    options.store = true;
+                } else if (option.equals("index")) {
+                    options.index = true;
+                } else if (option.equals("freqs")) {
+                    options.freqs = true;
+                } else if (option.equals("positions")) {
+                    options.freqs = options.positions = true;
+                } else if (option.equals("norms")) {
+                    options.norms = true;
+                } else if (option.equals("docvalues") && field.equals("DOCNO")) {
+                    docValues = true;
+                } else if (!option.isEmpty()) {
+                    throw new IllegalArgumentException("Unknown option " + option + " for field " + field);
+                }
+            }
+            if (field.equals("DOCNO")) {
+                // DOCNO stays indexed: updates and deletes go through its term
+                options.index = true;
+                schema.docnoDocValues = docValues;
+            }
+            schema.fields.put(field, options);
+        }
+        schema.buildTypes();
+        return schema;
+    }
+
+    public fieldOptions options(String field) {
+        return fields.get(field);
+    }
+
+    /**
+     * Binds the schema to the sidecar body store of an index, if the schema uses one.
+     *
+     * @param indexDir - Directory of the index being built
+     * @param append   - Keep the bodies already in the store
+     * @throws IOException
+     */
+
+    public void openSidecar(File indexDir, boolean append) throws IOException {
+        if (sidecar) {
+            bodies = bodyStore.create(indexDir, append);
+        }
+    }
+
+    public void flushSidecar() throws IOException {
+        if (bodies != null) {
+            bodies.flush();
+        }
+    }
+
+    public void closeSidecar() throws IOException {
+        if (bodies != null) {
+            bodies.close();
+            bodies = null;
+        }
+    }
+
+    /**
+     *
+     * @param doc - Parsed TREC document
+     * @return the Lucene document that is added to the index for <tt>doc</tt>
+     */
+
+    public Document toDocument(trecDocument doc) {
+        Document luceneDoc = new Document();
+        if (doc.docno != null) {
+            luceneDoc.add(new Field("DOCNO", doc.docno, type("DOCNO")));
+            if (docnoDocValues) {
+                luceneDoc.add(new SortedDocValuesField("DOCNO", new BytesRef(doc.docno)));
+            }
+        }
+        add(luceneDoc, "HEAD", doc.head);
+        add(luceneDoc, "BYLINE", doc.byline);
+        add(luceneDoc, "DATELINE", doc.dateline);
+        add(luceneDoc, "TEXT", doc.text);
+        return luceneDoc;
+    }
+
+    /**
+     * Writes the TEXT body of the document to the sidecar, if the schema is bound to one.
+     *
+     * @param doc - Parsed TREC document
+     * @throws IOException
+     */
+
+    public void storeBody(trecDocument doc) throws IOException {
+        if (bodies != null && doc.docno != null && doc.text != null) {
+            bodies.put(doc.docno, doc.text);
+        }
+    }
+
+    /**
+     * Drops the bodies of deleted documents from the sidecar, if the schema is bound to one.
+     *
+     * @param docnos - DOCNOs of the deleted documents
+     */
+
+    public void deleteBodies(Collection<String> docnos) {
+        if (bodies != null) {
+            for (String docno : docnos) {
+                bodies.remove(docno);
+            }
+        }
+    }
+
+    private void add(Document luceneDoc, String field, String value) {
+        fieldOptions options = fields.get(field);
+        if (value != null && (options.store || options.index)) {
+            luceneDoc.add(new Field(field, value, type(field)));
+        }
+    }
+
+    private FieldType type(String field) {
+        return types.get(field);
+    }
+
+    private void buildTypes() {
+        Map<String, FieldType> built = new HashMap<String, FieldType>();
+        for (Map.Entry<String, fieldOptions> entry : fields.entrySet()) {
+            String field = entry.getKey();
+            fieldOptions options = entry.getValue();
+            FieldType type = new FieldType();
+            type.setStored(options.store);
+            type.setIndexed(options.index);
+            type.setTokenized(!field.equals("DOCNO"));
+            if (field.equals("DOCNO")) {
+                type.setOmitNorms(true);
+                type.setIndexOptions(IndexOptions.DOCS_ONLY);
+            } else if (options.index) {
+                type.setOmitNorms(!options.norms);
+                type.setIndexOptions(options.positions ? IndexOptions.DOCS_AND_FREQS_AND_POSITIONS
+                        : options.freqs ? IndexOptions.DOCS_AND_FREQS : IndexOptions.DOCS_ONLY);
+            }
+            type.freeze();
+            built.put(field, type);
+        }
+        types = Collections.unmodifiableMap(built);
+    }
+
+    /**
+     * Looks up the external ID of a document, from the DOCNO doc values when the index has them
+     * and from the stored field otherwise.
+     *
+     * @param reader - Reader on the index
+     * @param docId  - Lucene document number in <tt>reader</tt>
+     * @return the DOCNO of the document, or <tt>null</tt> if it is neither stored nor in doc values
+     * @throws IOException
+     */
+
+    public static String docno(IndexReader reader, int docId) throws IOException {
+        List<AtomicReaderContext> leaves = reader.leaves();
+        AtomicReaderContext leaf = leaves.get(ReaderUtil.subIndex(docId, leaves));
+        SortedDocValues docnos = leaf.reader().getSortedDocValues("DOCNO");
+        if (docnos != null) {
+            int ord = docnos.getOrd(docId - leaf.docBase);
+            return ord < 0 ? null : docnos.lookupOrd(ord).utf8ToString();
+        }
+        return reader.document(docId, Collections.singleton("DOCNO")).get("DOCNO");
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder description = new StringBuilder(name);
+        for (Map.Entry<String, fieldOptions> field : fields.entrySet()) {
+            fieldOptions options = field.getValue();
+            description.append(';').append(field.getKey()).append('=');
+            List<String> set = new ArrayList<String>();
+            if (options.store) set.add("store");
+            if (options.index) set.add("index");
+            if (options.index && options.positions && !field.getKey().equals("DOCNO")) set.add("positions");
+            else if (options.index && options.freqs && !field.getKey().equals("DOCNO")) set.add("freqs");
+            if (options.index && options.norms && !field.getKey().equals("DOCNO")) set.add("norms");
+            if (field.getKey().equals("DOCNO") && docnoDocValues) set.add("docvalues");
+            for (int i = 0; i < set.size(); i++) {
+                description.append(i == 0 ? "" : ",").append(set.get(i));
+            }
+        }
+        return description.append(sidecar ? ";sidecar" : "").toString();
+    }
+}
@@ -0,0 +1,71 @@
+/**
+ * indexStats holds the figures that getStats reports for an index: the number of documents,
+ * the document and total frequency of one term, and the vocabulary totals of one field.
+ *
+ */
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.MultiFields;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.store.Directory;
+
+import java.io.IOException;
+
+public class indexStats {
+
+    public int numDocs;
+    public int termDocFreq;
+    public long termTotalFreq;
+    public long vocabularySize;
+    public int fieldDocCount;
+    public long sumTotalTermFreq;
+    public long sumDocFreq;
+
+    /**
+     *
+     * @param indexReader - Reader on the index
+     * @param field       - Field whose vocabulary totals are collected
+     * @param term        - Term whose frequencies are collected
+     * @return the statistics of the index
+     * @throws IOException
+     */
+
+    public static indexStats collect(IndexReader indexReader, String field, String term) throws IOException {
+        indexStats stats = new indexStats();
+        stats.numDocs = indexReader.numDocs();
+        stats.termDocFreq = indexReader.docFreq(new Term(field, term));
+        stats.termTotalFreq = indexReader.totalTermFreq(new Term(field, term));
+        Terms vocabulary = MultiFields.getTerms(indexReader, field);
+        if (vocabulary != null) {
+            stats.vocabularySize = vocabulary.size();
+            if (stats.vocabularySize < 0) {
+                // a merged view over several segments does not know its size; count the terms
+                stats.vocabularySize = 0;
+                TermsEnum termsEnum = vocabulary.iterator(null);
+                while (termsEnum.next() != null) {
+                    stats.vocabularySize++;
+                }
+            }
+            stats.fieldDocCount = vocabulary.getDocCount();
+            stats.sumTotalTermFreq = vocabulary.getSumTotalTermFreq();
+            stats.sumDocFreq = vocabulary.getSumDocFreq();
+        }
+        return stats;
+    }
+
+    /**
+     *
+     * @param directory - Directory holding an index
+     * @return total size in bytes of the files in the directory
+     * @throws IOException
+     */
+
+    public static long sizeOf(Directory directory) throws IOException {
+        long size = 0;
+        for (String file : directory.listAll()) {
+            size += directory.fileLength(file);
+        }
+        return size;
+    }
+}
@@ -0,0 +1,67 @@
+/**
+ * lruCache is a bounded, thread-safe map that evicts the least recently used entry once it
+ * holds more than <tt>capacity</tt> entries. It also counts hits and misses.
+ *
+ */
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+public class lruCache<K, V> {
+
+    private final int capacity;
+    private final LinkedHashMap<K, V> entries;
+    private long hits;
+    private long misses;
+
+    public lruCache(final int capacity) {
+        this.capacity = capacity;
+        this.entries = new LinkedHashMap<K, V>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+                return size() > lruCache.this.capacity;
+            }
+        };
+    }
+
+    /**
+     *
+     * @param key - Key to look up
+     * @return the cached value, or <tt>null</tt> if there is none
+     */
+
+    public synchronized V get(K key) {
+        if (capacity == 0) {
+            misses++;
+            return null;
+        }
+        V value = entries.get(key);
+        if (value == null) {
+            misses++;
+        } else {
+            hits++;
+        }
+        return value;
+    }
+
+    public synchronized void put(K key, V value) {
+        if (capacity > 0) {
+            entries.put(key, value);
+        }
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized long hits() {
+        return hits;
+    }
+
+    public synchronized long misses() {
+        return misses;
+    }
+}
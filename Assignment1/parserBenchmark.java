@@ -0,0 +1,122 @@
+/**
+ * parserBenchmark compares the throughput of the streaming {@link trecParser} with the old
+ * extraction path, which read each file into one StringBuilder with readLine() and then ran
+ * StringUtils.substringsBetween once for DOC and once per field. The program usage is given below:
+ *
+ * <tt>java parserBenchmark <Corpus Directory> [Rounds]</tt>
+ *
+ * Each round parses every <tt>.trectext</tt> file with both parsers; the best round of each is
+ * reported in MB/sec together with the number of documents found.
+ *
+ */
+import org.apache.commons.lang3.StringUtils;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.List;
+
+public class parserBenchmark {
+
+    private static final String[][] FIELD_TAGS = {
+            {"<DOCNO>", "</DOCNO>"},
+            {"<HEAD>", "</HEAD>"},
+            {"<BYLINE>", "</BYLINE>"},
+            {"<DATELINE>", "</DATELINE>"},
+            {"<TEXT>", "</TEXT>"}
+    };
+
+    /**
+     * The extraction that generateIndex and indexComparison used before trecParser.
+     *
+     * @param file - TREC file to be parsed
+     * @return extracted documents
+     * @throws IOException
+     */
+
+    static List<trecDocument> substringsBetweenParse(File file) throws IOException {
+        List<trecDocument> result = new ArrayList<trecDocument>();
+        StringBuilder sbFile = new StringBuilder();
+        BufferedReader bufferedReader = new BufferedReader(new InputStreamReader(new FileInputStream(file)));
+        try {
+            while (bufferedReader.ready()) {
+                sbFile.append(bufferedReader.readLine());
+            }
+        } finally {
+            bufferedReader.close();
+        }
+        String[] docs = StringUtils.substringsBetween(sbFile.toString(), trecParser.DOC, trecParser.TERMINATING_DOC);
+        if (docs == null) {
+            return result;
+        }
+        for (String doc : docs) {
+            String[] values = new String[FIELD_TAGS.length];
+            for (int i = 0; i < FIELD_TAGS.length; i++) {
+                values[i] = StringUtils.join(StringUtils.substringsBetween(doc, FIELD_TAGS[i][0], FIELD_TAGS[i][1]), " ");
+            }
+            result.add(new trecDocument(values[0], values[1], values[2], values[3], values[4]));
+        }
+        return result;
+    }
+
+    static int streamingParse(File file) throws IOException {
+        int docs = 0;
+        trecParser parser = new trecParser(file);
+        try {
+            while (parser.next() != null) {
+                docs++;
+            }
+        } finally {
+            parser.close();
+        }
+        return docs;
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.out.println("Usage: java " + parserBenchmark.class.getName() + " <Corpus Directory> [Rounds]");
+            System.exit(-1);
+        }
+        File[] dataFiles = new File(args[0]).listFiles(new FileFilter() {
+            @Override
+            public boolean accept(File file) {
+                return file.getName().toLowerCase().endsWith(".trectext");
+            }
+        });
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        long corpusBytes = 0;
+        long largestFile = 0;
+        for (File file : dataFiles) {
+            corpusBytes += file.length();
+            largestFile = Math.max(largestFile, file.length());
+        }
+        long bestLegacy = Long.MAX_VALUE;
+        long bestStreaming = Long.MAX_VALUE;
+        int legacyDocs = 0;
+        int streamingDocs = 0;
+        for (int round = 0; round < rounds; round++) {
+            long start = System.nanoTime();
+            legacyDocs = 0;
+            for (File file : dataFiles) {
+                legacyDocs += substringsBetweenParse(file).size();
+            }
+            bestLegacy = Math.min(bestLegacy, System.nanoTime() - start);
+
+            start = System.nanoTime();
+            streamingDocs = 0;
+            for (File file : dataFiles) {
+                streamingDocs += streamingParse(file);
+            }
+            bestStreaming = Math.min(bestStreaming, System.nanoTime() - start);
+        }
+        System.out.println("**************************************************************************");
+        System.out.println("Files: " + dataFiles.length + ", bytes: " + corpusBytes + ", largest file: " + largestFile + " bytes");
+        System.out.println(String.format("substringsBetween: %8.2f MB/sec, %d documents", mbPerSecond(corpusBytes, bestLegacy), legacyDocs));
+        System.out.println(String.format("trecParser:        %8.2f MB/sec, %d documents", mbPerSecond(corpusBytes, bestStreaming), streamingDocs));
+        System.out.println(String.format("Speedup:           %8.2fx", (double) bestLegacy / bestStreaming));
+        System.out.println("**************************************************************************");
+    }
+
+    private static double mbPerSecond(long bytes, long nanos) {
+        return bytes / (1024.0 * 1024.0) / (nanos / 1e9);
+    }
+}
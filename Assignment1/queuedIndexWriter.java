@@ -0,0 +1,119 @@
+/**
+ * queuedIndexWriter feeds an IndexWriter from its own thread. Documents handed to {@link #add}
+ * are queued and added by {@link #run}; after {@link #finish} the writer is force merged,
+ * committed and closed. This lets one parsing thread drive several writers at the same time.
+ *
+ * A failure in the writer thread is recorded and the queue keeps being drained, so the parsing
+ * thread never blocks on a dead writer; the failure is rethrown by {@link #await}.
+ *
+ */
+import org.apache.lucene.index.IndexWriter;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+public class queuedIndexWriter implements Runnable {
+
+    private static final trecDocument END = new trecDocument(null, null, null, null, null);
+
+    private final String name;
+    private final IndexWriter indexWriter;
+    private final BlockingQueue<trecDocument> queue;
+    private final Thread thread;
+    private volatile Throwable failure;
+
+    public long addNanos;
+    public long mergeNanos;
+    public long commitNanos;
+    public int docCount;
+
+    /**
+     *
+     * @param name          - Name of the writer, used for the thread name
+     * @param indexWriter   - Writer the documents are added to; closed when done
+     * @param queueCapacity - Maximum number of documents waiting to be added
+     */
+
+    public queuedIndexWriter(String name, IndexWriter indexWriter, int queueCapacity) {
+        this.name = name;
+        this.indexWriter = indexWriter;
+        this.queue = new ArrayBlockingQueue<trecDocument>(queueCapacity);
+        this.thread = new Thread(this, "writer-" + name);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void start() {
+        thread.start();
+    }
+
+    public void add(trecDocument doc) throws InterruptedIOException {
+        try {
+            queue.put(doc);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while queueing document for " + name);
+        }
+    }
+
+    public void finish() throws InterruptedIOException {
+        add(END);
+    }
+
+    /**
+     * Waits for the writer thread to merge, commit and close the index.
+     *
+     * @throws IOException if adding, merging or committing failed
+     */
+
+    public void await() throws IOException {
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for " + name);
+        }
+        if (failure != null) {
+            throw new IOException("Indexing with " + name + " failed", failure);
+        }
+    }
+
+    @Override
+    public void run() {
+        try {
+            trecDocument doc;
+            while ((doc = queue.take()) != END) {
+                if (failure != null) {
+                    continue;
+                }
+                long start = System.nanoTime();
+                try {
+                    indexWriter.addDocument(doc.toDocument());
+                    docCount++;
+                } catch (Throwable t) {
+                    failure = t;
+                }
+                addNanos += System.nanoTime() - start;
+            }
+            if (failure == null) {
+                long start = System.nanoTime();
+                indexWriter.forceMerge(1);
+                mergeNanos = System.nanoTime() - start;
+                start = System.nanoTime();
+                indexWriter.commit();
+                commitNanos = System.nanoTime() - start;
+                indexWriter.close();
+            } else {
+                indexWriter.rollback();
+            }
+        } catch (Throwable t) {
+            if (failure == null) {
+                failure = t;
+            }
+        }
+    }
+}
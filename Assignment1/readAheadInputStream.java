@@ -0,0 +1,154 @@
+/**
+ * readAheadInputStream reads its source stream on a background thread into a bounded queue of
+ * chunks. Wrapped around a GZIPInputStream it lets decompression of the next chunks run while
+ * the reading thread is still parsing and indexing the current one.
+ *
+ * An exception thrown by the source is handed over through the queue and rethrown by read().
+ * close() waits for the background thread to stop, so once it returns the source (and anything
+ * that observes its reads, such as a {@link corpusManifest.contentHash}) is no longer in use.
+ *
+ */
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class readAheadInputStream extends InputStream {
+
+    private static final byte[] END = new byte[0];
+
+    private final BlockingQueue<Object> chunks;
+    private final Thread producer;
+    private byte[] current;
+    private int position;
+
+    /**
+     *
+     * @param source    - Stream to be read ahead; closed by the background thread when done
+     * @param chunkSize - Number of bytes per chunk
+     * @param maxChunks - Number of chunks that may be read ahead
+     * @param busyNanos - Counter to which the time spent reading the source is added
+     */
+
+    public readAheadInputStream(final InputStream source, final int chunkSize, int maxChunks, final AtomicLong busyNanos) {
+        this.chunks = new ArrayBlockingQueue<Object>(maxChunks);
+        this.producer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                long busy = 0;
+                try {
+                    while (true) {
+                        if (Thread.interrupted()) {
+                            throw new InterruptedException();
+                        }
+                        long start = System.nanoTime();
+                        byte[] chunk = new byte[chunkSize];
+                        int filled = 0;
+                        int read = 0;
+                        while (filled < chunkSize && (read = source.read(chunk, filled, chunkSize - filled)) != -1) {
+                            filled += read;
+                        }
+                        busy += System.nanoTime() - start;
+                        if (filled > 0) {
+                            chunks.put(filled == chunkSize ? chunk : Arrays.copyOf(chunk, filled));
+                        }
+                        if (read == -1) {
+                            chunks.put(END);
+                            break;
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    // the reader has been closed before the end of the source
+                } catch (Throwable e) {
+                    // runtime exceptions and errors too, or the reader would wait for a chunk forever
+                    try {
+                        chunks.put(e);
+                    } catch (InterruptedException ignored) {
+                        // the reader has been closed, nobody is waiting for the error
+                    }
+                } finally {
+                    busyNanos.addAndGet(busy);
+                    try {
+                        source.close();
+                    } catch (IOException ignored) {
+                        // nothing more will be read from the source
+                    }
+                }
+            }
+        }, "read-ahead");
+        this.producer.setDaemon(true);
+        this.producer.start();
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!nextChunk()) {
+            return -1;
+        }
+        return current[position++] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (!nextChunk()) {
+            return -1;
+        }
+        int n = Math.min(len, current.length - position);
+        System.arraycopy(current, position, b, off, n);
+        position += n;
+        return n;
+    }
+
+    @Override
+    public void close() throws IOException {
+        producer.interrupt();
+        chunks.clear();
+        current = END;
+        boolean interrupted = false;
+        while (producer.isAlive()) {
+            try {
+                producer.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private boolean nextChunk() throws IOException {
+        if (current == END) {
+            return false;
+        }
+        if (current != null && position < current.length) {
+            return true;
+        }
+        Object next;
+        try {
+            next = chunks.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for input");
+        }
+        if (next instanceof Throwable) {
+            current = END;
+            if (next instanceof IOException) {
+                throw (IOException) next;
+            }
+            if (next instanceof RuntimeException) {
+                throw (RuntimeException) next;
+            }
+            throw (Error) next;
+        }
+        current = (byte[]) next;
+        position = 0;
+        return current != END;
+    }
+}
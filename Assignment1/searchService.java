@@ -0,0 +1,470 @@
+/**
+ * searchService is a long-lived search component over an index built by generateIndex. The
+ * reader is opened once and shared by all queries through a SearcherManager; queries are
+ * multi-field BM25 queries over TEXT and HEAD, and results are kept in a bounded LRU cache.
+ * Cached results are keyed by the version of the reader they were computed on, so a result of a
+ * search that was still running on the old reader when the index was refreshed is never served
+ * from the new one.
+ *
+ * It can run a TREC topic file as a batch on a pool of query threads and write the results in
+ * TREC run format (<tt>qid Q0 docno rank score tag</tt>), and it can put the index under
+ * concurrent load to report p50/p99 latency and queries/sec. The program usage is given below:
+ *
+ * <tt>java searchService <Index Directory> <Topics File> <Run File> [options]</tt>
+ *
+ * Options:
+ *  --threads N        number of query threads (default: number of cores)
+ *  --top K            number of results per query (default 1000)
+ *  --cache-size N     number of query results kept in the LRU cache (default 10000, 0 disables)
+ *  --use-desc         query with title and description instead of the title only
+ *  --run-tag TAG      tag written in the last column of the run file (default "lucene-bm25")
+ *  --load-test SECS   after the batch, run the topics repeatedly on all threads for SECS seconds
+ *                     and report latency and throughput
+ *  --directory MODE   auto, mmap, nio or ram (see {@link indexDirectory}); a ram copy does not
+ *                     see later changes to the index
+ *  --warm-up          read the terms dictionary and postings of every reader before it serves
+ *
+ */
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.queryparser.classic.MultiFieldQueryParser;
+import org.apache.lucene.queryparser.classic.ParseException;
+import org.apache.lucene.queryparser.classic.QueryParser;
+import org.apache.lucene.search.*;
+import org.apache.lucene.search.similarities.BM25Similarity;
+import org.apache.lucene.store.Directory;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+public class searchService implements Closeable {
+
+    public static final String[] SEARCH_FIELDS = {"TEXT", "HEAD"};
+    private static final Pattern OPERATORS = Pattern.compile("\\b(AND|OR|NOT)\\b");
+
+    private final Directory directory;
+    private final SearcherManager searcherManager;
+    private final ExecutorService segmentExecutor;
+    private final ExecutorService queryExecutor;
+    private final Analyzer analyzer = new StandardAnalyzer();
+    private final lruCache<String, searchResult> cache;
+
+    /**
+     *
+     * @param indexDir     - Directory where index files are stored
+     * @param threads      - Number of threads running queries
+     * @param cacheEntries - Number of results kept in the cache
+     * @throws IOException
+     */
+
+    public searchService(String indexDir, int threads, int cacheEntries) throws IOException {
+        this(indexDir, threads, cacheEntries, "auto", false);
+    }
+
+    /**
+     *
+     * @param indexDir      - Directory where index files are stored
+     * @param threads       - Number of threads running queries
+     * @param cacheEntries  - Number of results kept in the cache
+     * @param directoryMode - One of {@link indexDirectory#MODES}
+     * @param warmUp        - Warm every reader up before it serves queries
+     * @throws IOException
+     */
+
+    public searchService(String indexDir, int threads, int cacheEntries, String directoryMode,
+                         final boolean warmUp) throws IOException {
+        this.directory = indexDirectory.open(new File(indexDir), directoryMode);
+        this.segmentExecutor = Executors.newFixedThreadPool(threads, daemonThreads("segment-search"));
+        this.queryExecutor = Executors.newFixedThreadPool(threads, daemonThreads("query"));
+        this.cache = new lruCache<String, searchResult>(cacheEntries);
+        this.searcherManager = new SearcherManager(directory, new SearcherFactory() {
+            @Override
+            public IndexSearcher newSearcher(IndexReader reader) throws IOException {
+                if (warmUp) {
+                    long start = System.nanoTime();
+                    long postings = indexDirectory.warmUp(reader);
+                    System.out.println(String.format("Warmed up %d postings in %.2f sec", postings, (System.nanoTime() - start) / 1e9));
+                }
+                // searching segments in parallel only pays off when there is more than one
+                IndexSearcher searcher = reader.leaves().size() > 1
+                        ? new IndexSearcher(reader, segmentExecutor) : new IndexSearcher(reader);
+                searcher.setSimilarity(new BM25Similarity());
+                return searcher;
+            }
+        });
+    }
+
+    /**
+     * Picks up changes made to the index since it was opened and empties the result cache.
+     *
+     * @return true if a new reader was opened
+     * @throws IOException
+     */
+
+    public boolean refresh() throws IOException {
+        boolean refreshed = !searcherManager.isSearcherCurrent() && searcherManager.maybeRefresh();
+        if (refreshed) {
+            cache.clear();
+        }
+        return refreshed;
+    }
+
+    /**
+     * Searches TEXT and HEAD with BM25. The text is taken literally: query syntax characters
+     * are escaped and the operators AND, OR and NOT are lowercased into plain words. Safe to
+     * call from any number of threads.
+     *
+     * @param text - Query text
+     * @param topK - Maximum number of results
+     * @return the ranked results
+     * @throws IOException
+     */
+
+    public searchResult search(String text, int topK) throws IOException {
+        IndexSearcher searcher = searcherManager.acquire();
+        try {
+            String key = ((DirectoryReader) searcher.getIndexReader()).getVersion() + "\u0000" + topK + "\u0000" + text;
+            searchResult cached = cache.get(key);
+            if (cached != null) {
+                return cached;
+            }
+            searchResult result = execute(searcher, text, topK);
+            cache.put(key, result);
+            return result;
+        } finally {
+            searcherManager.release(searcher);
+        }
+    }
+
+    private searchResult execute(String text, int topK) throws IOException {
+        IndexSearcher searcher = searcherManager.acquire();
+        try {
+            return execute(searcher, text, topK);
+        } finally {
+            searcherManager.release(searcher);
+        }
+    }
+
+    private searchResult execute(IndexSearcher searcher, String text, int topK) throws IOException {
+        Query query;
+        try {
+            // the parser is not thread-safe and cheap to create
+            MultiFieldQueryParser parser = new MultiFieldQueryParser(SEARCH_FIELDS, analyzer);
+            query = parser.parse(literal(text));
+        } catch (ParseException e) {
+            throw new IOException("Cannot parse query: " + text, e);
+        }
+        TopDocs topDocs = searcher.search(query, topK);
+        String[] docnos = new String[topDocs.scoreDocs.length];
+        float[] scores = new float[topDocs.scoreDocs.length];
+        for (int i = 0; i < docnos.length; i++) {
+            // doc values when the index layout has them, the stored field otherwise
+            String docno = indexSchema.docno(searcher.getIndexReader(), topDocs.scoreDocs[i].doc);
+            // indexes built before DOCNOs were normalized still hold the padded form
+            docnos[i] = docno == null ? "" : trecDocument.normalizeDocno(docno);
+            scores[i] = topDocs.scoreDocs[i].score;
+        }
+        return new searchResult(docnos, scores, topDocs.totalHits);
+    }
+
+    // escape() leaves the operator words alone, and the parser would still apply them
+    static String literal(String text) {
+        Matcher operator = OPERATORS.matcher(QueryParser.escape(text));
+        StringBuffer literal = new StringBuffer();
+        while (operator.find()) {
+            operator.appendReplacement(literal, operator.group(1).toLowerCase());
+        }
+        operator.appendTail(literal);
+        return literal.toString();
+    }
+
+    /**
+     * Runs all topics concurrently on the query threads.
+     *
+     * @param topics - Topic number to query text, in the order the results are wanted
+     * @param topK   - Maximum number of results per topic
+     * @return topic number to results, in the order of <tt>topics</tt>
+     * @throws IOException
+     */
+
+    public Map<String, searchResult> searchAll(Map<String, String> topics, final int topK) throws IOException {
+        Map<String, Future<searchResult>> futures = new LinkedHashMap<String, Future<searchResult>>();
+        for (final Map.Entry<String, String> topic : topics.entrySet()) {
+            futures.put(topic.getKey(), queryExecutor.submit(new Callable<searchResult>() {
+                @Override
+                public searchResult call() throws IOException {
+                    return search(topic.getValue(), topK);
+                }
+            }));
+        }
+        Map<String, searchResult> results = new LinkedHashMap<String, searchResult>();
+        for (Map.Entry<String, Future<searchResult>> future : futures.entrySet()) {
+            results.put(future.getKey(), await(future.getValue()));
+        }
+        return results;
+    }
+
+    /**
+     * Writes results in TREC run format, one line per retrieved document.
+     *
+     * @param results - Topic number to results
+     * @param runTag  - Name of the run
+     * @param out     - Destination
+     */
+
+    public static void writeRun(Map<String, searchResult> results, String runTag, PrintWriter out) {
+        for (Map.Entry<String, searchResult> result : results.entrySet()) {
+            searchResult hits = result.getValue();
+            for (int i = 0; i < hits.docnos.length; i++) {
+                out.println(result.getKey() + " Q0 " + hits.docnos[i] + " " + (i + 1) + " " + hits.scores[i] + " " + runTag);
+            }
+        }
+    }
+
+    /**
+     * Sends the queries round robin from every query thread for the given time and reports the
+     * latency percentiles and throughput. The result cache is bypassed unless
+     * <tt>useCache</tt> is set, so the figures reflect the index and not the cache.
+     *
+     * @param queries  - Query texts
+     * @param topK     - Maximum number of results per query
+     * @param seconds  - Duration of the test
+     * @param threads  - Number of concurrent clients
+     * @param useCache - Let the clients hit the result cache
+     * @throws IOException
+     */
+
+    public void loadTest(final List<String> queries, final int topK, int seconds, int threads, final boolean useCache) throws IOException {
+        final AtomicBoolean running = new AtomicBoolean(true);
+        List<Future<long[]>> clients = new ArrayList<Future<long[]>>();
+        ExecutorService clientPool = Executors.newFixedThreadPool(threads, daemonThreads("load-client"));
+        long start = System.nanoTime();
+        for (int t = 0; t < threads; t++) {
+            final int offset = t;
+            clients.add(clientPool.submit(new Callable<long[]>() {
+                @Override
+                public long[] call() throws IOException {
+                    long[] latencies = new long[1024];
+                    int count = 0;
+                    for (int i = offset; running.get(); i++) {
+                        String text = queries.get(i % queries.size());
+                        long begin = System.nanoTime();
+                        if (useCache) {
+                            search(text, topK);
+                        } else {
+                            execute(text, topK);
+                        }
+                        if (count == latencies.length) {
+                            latencies = Arrays.copyOf(latencies, count * 2);
+                        }
+                        latencies[count++] = System.nanoTime() - begin;
+                    }
+                    return Arrays.copyOf(latencies, count);
+                }
+            }));
+        }
+        try {
+            Thread.sleep(seconds * 1000L);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        running.set(false);
+        long[] all = new long[0];
+        for (Future<long[]> client : clients) {
+            long[] latencies = await(client);
+            int old = all.length;
+            all = Arrays.copyOf(all, old + latencies.length);
+            System.arraycopy(latencies, 0, all, old, latencies.length);
+        }
+        double elapsed = (System.nanoTime() - start) / 1e9;
+        clientPool.shutdown();
+        Arrays.sort(all);
+        System.out.println("**************************************************************************");
+        System.out.println(String.format("Load test: %d threads, %d queries in %.1f sec, %.1f queries/sec%s",
+                threads, all.length, elapsed, all.length / elapsed, useCache ? " (cache enabled)" : ""));
+        System.out.println(String.format("Latency: p50 %.2f ms, p99 %.2f ms, max %.2f ms",
+                indexMetrics.percentile(all, 50) / 1e6, indexMetrics.percentile(all, 99) / 1e6,
+                indexMetrics.percentile(all, 100) / 1e6));
+        System.out.println("**************************************************************************");
+    }
+
+    private static <T> T await(Future<T> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while searching");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("Search failed", e.getCause());
+        }
+    }
+
+    private static ThreadFactory daemonThreads(final String name) {
+        return new ThreadFactory() {
+            private int count;
+
+            @Override
+            public synchronized Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, name + "-" + count++);
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+    }
+
+    /**
+     * searchResult holds the ranked DOCNOs and scores of one query.
+     */
+
+    public static class searchResult {
+
+        public final String[] docnos;
+        public final float[] scores;
+        public final int totalHits;
+
+        searchResult(String[] docnos, float[] scores, int totalHits) {
+            this.docnos = docnos;
+            this.scores = scores;
+            this.totalHits = totalHits;
+        }
+    }
+
+    public lruCache<String, searchResult> getCache() {
+        return cache;
+    }
+
+    @Override
+    public void close() throws IOException {
+        queryExecutor.shutdown();
+        segmentExecutor.shutdown();
+        searcherManager.close();
+        directory.close();
+    }
+
+    /**
+     * Reads a TREC topic file. Each <tt>&lt;top&gt;</tt> gives a topic number from
+     * <tt>&lt;num&gt;</tt> and query text from <tt>&lt;title&gt;</tt>, optionally followed by
+     * <tt>&lt;desc&gt;</tt>.
+     *
+     * @param topicsFile  - TREC topic file
+     * @param description - Add the description to the query text
+     * @return topic number to query text, in file order
+     * @throws IOException
+     */
+
+    public static Map<String, String> readTopics(File topicsFile, boolean description) throws IOException {
+        StringBuilder content = new StringBuilder();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(topicsFile)));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                content.append(line).append('\n');
+            }
+        } finally {
+            reader.close();
+        }
+        Map<String, String> topics = new LinkedHashMap<String, String>();
+        Pattern num = Pattern.compile("<num>\\s*(?:Number:)?\\s*(\\S+)");
+        for (String top : content.toString().split("<top>")) {
+            Matcher matcher = num.matcher(top);
+            if (!matcher.find()) {
+                continue;
+            }
+            String text = tagText(top, "<title>", "");
+            if (description) {
+                text = text + " " + tagText(top, "<desc>", "Description:");
+            }
+            topics.put(matcher.group(1), text.replaceAll("\\s+", " ").trim());
+        }
+        return topics;
+    }
+
+    private static String tagText(String top, String tag, String label) {
+        int start = top.indexOf(tag);
+        if (start < 0) {
+            return "";
+        }
+        start += tag.length();
+        int end = top.indexOf('<', start);
+        String text = top.substring(start, end < 0 ? top.length() : end).trim();
+        return text.startsWith(label) ? text.substring(label.length()) : text;
+    }
+
+    public static void main(String[] args) {
+        if (args.length < 3) {
+            System.out.println("Usage: java " + searchService.class.getName() + " <Index Directory> <Topics File> <Run File>"
+                    + " [--threads N] [--top K] [--cache-size N] [--use-desc] [--run-tag TAG] [--load-test SECS]"
+                    + " [--directory auto|mmap|nio|ram] [--warm-up]");
+            System.exit(-1);
+        }
+        int threads = Runtime.getRuntime().availableProcessors();
+        int topK = 1000;
+        int cacheSize = 10000;
+        boolean useDesc = false;
+        String runTag = "lucene-bm25";
+        int loadSeconds = 0;
+        String directoryMode = "auto";
+        boolean warmUp = false;
+        for (int i = 3; i < args.length; i++) {
+            if (args[i].equals("--threads") && i + 1 < args.length) {
+                threads = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("--top") && i + 1 < args.length) {
+                topK = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("--cache-size") && i + 1 < args.length) {
+                cacheSize = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("--use-desc")) {
+                useDesc = true;
+            } else if (args[i].equals("--run-tag") && i + 1 < args.length) {
+                runTag = args[++i];
+            } else if (args[i].equals("--load-test") && i + 1 < args.length) {
+                loadSeconds = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("--directory") && i + 1 < args.length) {
+                directoryMode = args[++i];
+            } else if (args[i].equals("--warm-up")) {
+                warmUp = true;
+            } else {
+                System.out.println("Unknown option: " + args[i]);
+                System.exit(-1);
+            }
+        }
+        searchService service = null;
+        try {
+            service = new searchService(args[0], threads, cacheSize, directoryMode, warmUp);
+            Map<String, String> topics = readTopics(new File(args[1]), useDesc);
+            long start = System.nanoTime();
+            Map<String, searchResult> results = service.searchAll(topics, topK);
+            double seconds = (System.nanoTime() - start) / 1e9;
+            PrintWriter out = new PrintWriter(new BufferedWriter(new FileWriter(args[2])));
+            try {
+                writeRun(results, runTag, out);
+            } finally {
+                out.close();
+            }
+            System.out.println("**************************************************************************");
+            System.out.println(String.format("Ran %d topics on %d threads in %.2f sec (%.1f queries/sec), run written to %s",
+                    topics.size(), threads, seconds, topics.size() / seconds, args[2]));
+            if (loadSeconds > 0) {
+                service.loadTest(new ArrayList<String>(topics.values()), topK, loadSeconds, threads, false);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            try {
+                if (service != null) {
+                    service.close();
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+}
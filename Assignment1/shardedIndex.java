@@ -0,0 +1,305 @@
+/**
+ * shardedIndex builds the index in several worker processes. The corpus files are split into
+ * shards of about equal size, and each shard is indexed by its own JVM running generateIndex on
+ * the shard's file list into <tt>indexDir/shard-N</tt>, logging to <tt>indexDir/shard-N.log</tt>.
+ * The shards are then either kept as separate indexes and read together through a MultiReader,
+ * or merged into <tt>indexDir</tt> with IndexWriter.addIndexes and removed. A merged index gets
+ * the combined {@link corpusManifest} of its shards, so it can be updated with --incremental.
+ *
+ * Workers run with the same java binary and class path as this JVM and get the layout and
+ * per-worker thread count of the calling run. A worker that fails exits non-zero and fails the
+ * whole build. Only when every shard was built is the number of shards written to
+ * <tt>indexDir/shards</tt>; {@link #open} refuses to read a sharded index without that file or
+ * with any of the recorded shards missing, so a partial build is never taken for the corpus.
+ *
+ */
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.index.*;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.Version;
+
+import java.io.*;
+import java.util.*;
+
+public class shardedIndex {
+
+    public static final String SHARD_COUNT_FILE = "shards";
+
+    /**
+     * Assigns each file, largest first, to the shard with the fewest bytes so far.
+     *
+     * @param dataFiles - Corpus files
+     * @param numShards - Number of shards
+     * @return the files of each shard, in name order
+     */
+
+    static List<List<File>> split(File[] dataFiles, int numShards) {
+        File[] bySize = dataFiles.clone();
+        Arrays.sort(bySize, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                return Long.compare(b.length(), a.length());
+            }
+        });
+        List<List<File>> shards = new ArrayList<List<File>>();
+        long[] shardBytes = new long[numShards];
+        for (int i = 0; i < numShards; i++) {
+            shards.add(new ArrayList<File>());
+        }
+        for (File file : bySize) {
+            int smallest = 0;
+            for (int i = 1; i < numShards; i++) {
+                if (shardBytes[i] < shardBytes[smallest]) {
+                    smallest = i;
+                }
+            }
+            shards.get(smallest).add(file);
+            shardBytes[smallest] += file.length();
+        }
+        for (List<File> shard : shards) {
+            Collections.sort(shard);
+        }
+        return shards;
+    }
+
+    /**
+     *
+     * @param dataDir    - Directory where Corpus or data files are stored
+     * @param indexDir   - Directory under which the shards are written
+     * @param numShards  - Number of shards and worker processes
+     * @param numThreads - Number of indexing threads in each worker
+     * @param layout     - Index layout passed to the workers (see {@link indexSchema#parse}), may be null
+     * @param merge      - Merge the shards into <tt>indexDir</tt> once all workers are done
+     * @throws IOException
+     */
+
+    public static void build(String dataDir, String indexDir, int numShards, int numThreads, String layout,
+                             boolean merge) throws IOException {
+        File[] dataFiles = generateIndex.listDataFiles(dataDir);
+        numShards = Math.max(1, Math.min(numShards, dataFiles.length));
+        File root = new File(indexDir);
+        root.mkdirs();
+        // shards of an earlier build would otherwise be read as part of this one
+        new File(root, SHARD_COUNT_FILE).delete();
+        for (int i = 0; new File(root, "shard-" + i).isDirectory(); i++) {
+            deleteRecursively(new File(root, "shard-" + i));
+        }
+        List<List<File>> shards = split(dataFiles, numShards);
+        List<Process> workers = new ArrayList<Process>();
+        List<File> shardDirs = new ArrayList<File>();
+        String java = new File(new File(System.getProperty("java.home"), "bin"), "java").getPath();
+        long start = System.nanoTime();
+        try {
+            for (int i = 0; i < numShards; i++) {
+                File fileList = new File(root, "shard-" + i + ".files");
+                PrintWriter out = new PrintWriter(new OutputStreamWriter(new FileOutputStream(fileList), "UTF-8"));
+                try {
+                    for (File file : shards.get(i)) {
+                        out.println(file.getName());
+                    }
+                } finally {
+                    out.close();
+                }
+                File shardDir = new File(root, "shard-" + i);
+                shardDirs.add(shardDir);
+                List<String> command = new ArrayList<String>(Arrays.asList(java, "-cp", System.getProperty("java.class.path"),
+                        generateIndex.class.getName(), dataDir, shardDir.getPath(), "--files", fileList.getPath(),
+                        "--threads", Integer.toString(numThreads)));
+                if (layout != null) {
+                    command.add("--layout");
+                    command.add(layout);
+                }
+                ProcessBuilder builder = new ProcessBuilder(command);
+                builder.redirectErrorStream(true);
+                builder.redirectOutput(new File(root, "shard-" + i + ".log"));
+                workers.add(builder.start());
+            }
+            System.out.println("**************************************************************************");
+            System.out.println("Started " + numShards + " worker process(es) for " + dataFiles.length + " files");
+            for (int i = 0; i < workers.size(); i++) {
+                int exitCode = workers.get(i).waitFor();
+                System.out.println(String.format("Shard %d: %d files, exit code %d after %.2f sec", i, shards.get(i).size(),
+                        exitCode, (System.nanoTime() - start) / 1e9));
+                if (exitCode != 0) {
+                    throw new IOException("Worker for shard " + i + " failed, see " + new File(root, "shard-" + i + ".log"));
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the shard workers");
+        } finally {
+            for (Process worker : workers) {
+                worker.destroy();
+            }
+        }
+        for (File shardDir : shardDirs) {
+            Directory shard = FSDirectory.open(shardDir);
+            try {
+                if (!DirectoryReader.indexExists(shard)) {
+                    throw new IOException("Worker exited normally but left no index in " + shardDir);
+                }
+            } finally {
+                shard.close();
+            }
+        }
+        double buildSeconds = (System.nanoTime() - start) / 1e9;
+        System.out.println(String.format("All shards built in %.2f sec", buildSeconds));
+        if (merge) {
+            start = System.nanoTime();
+            merge(root, shardDirs);
+            System.out.println(String.format("Merged %d shards into %s in %.2f sec", shardDirs.size(), root,
+                    (System.nanoTime() - start) / 1e9));
+            for (File shardDir : shardDirs) {
+                deleteRecursively(shardDir);
+            }
+        } else {
+            PrintWriter out = new PrintWriter(new OutputStreamWriter(new FileOutputStream(new File(root, SHARD_COUNT_FILE)), "UTF-8"));
+            try {
+                out.println(shardDirs.size());
+            } finally {
+                out.close();
+            }
+        }
+        System.out.println("**************************************************************************");
+    }
+
+    /**
+     * Adds the shard indexes to a new index in <tt>indexDir</tt>, merges it down to one segment
+     * and combines the sidecar body stores of the shards, if they have any.
+     *
+     * @param indexDir  - Directory receiving the merged index
+     * @param shardDirs - Shard index directories
+     * @throws IOException
+     */
+
+    static void merge(File indexDir, List<File> shardDirs) throws IOException {
+        Directory[] shards = new Directory[shardDirs.size()];
+        for (int i = 0; i < shards.length; i++) {
+            shards[i] = FSDirectory.open(shardDirs.get(i));
+        }
+        IndexWriterConfig iwc = new IndexWriterConfig(Version.LUCENE_4_10_0, new StandardAnalyzer());
+        iwc.setOpenMode(IndexWriterConfig.OpenMode.CREATE);
+        IndexWriter indexWriter = new IndexWriter(FSDirectory.open(indexDir), iwc);
+        try {
+            indexWriter.addIndexes(shards);
+            indexWriter.forceMerge(1);
+            corpusManifest manifest = new corpusManifest();
+            for (File shardDir : shardDirs) {
+                manifest.addAll(corpusManifest.load(shardDir));
+            }
+            Map<String, String> commitData = new HashMap<String, String>();
+            commitData.put(indexCheckpoint.STATUS, indexCheckpoint.COMPLETE);
+            commitData.put(corpusManifest.GENERATION, manifest.saveForCommit(indexDir));
+            indexWriter.setCommitData(commitData);
+            indexWriter.commit();
+        } finally {
+            indexWriter.close();
+            for (Directory shard : shards) {
+                shard.close();
+            }
+        }
+        bodyStore merged = null;
+        for (File shardDir : shardDirs) {
+            bodyStore shardBodies = bodyStore.open(shardDir);
+            if (shardBodies == null) {
+                continue;
+            }
+            try {
+                if (merged == null) {
+                    merged = bodyStore.create(indexDir, false);
+                }
+                for (String docno : shardBodies.docnos()) {
+                    merged.put(docno, shardBodies.get(docno));
+                }
+            } finally {
+                shardBodies.close();
+            }
+        }
+        if (merged != null) {
+            merged.close();
+        }
+    }
+
+    /**
+     * Opens the index of a sharded build: all shards together through a MultiReader, or the merged
+     * index once the shards have been merged away.
+     *
+     * @param indexDir - Directory given to {@link #build}
+     * @return a reader over the whole corpus
+     * @throws IOException if the build did not complete or one of its shards is missing
+     */
+
+    public static IndexReader open(File indexDir) throws IOException {
+        File countFile = new File(indexDir, SHARD_COUNT_FILE);
+        if (!countFile.exists()) {
+            if (new File(indexDir, "shard-0").isDirectory()) {
+                throw new IOException("Sharded build in " + indexDir + " did not complete (no " + SHARD_COUNT_FILE + " file)");
+            }
+            return DirectoryReader.open(FSDirectory.open(indexDir));
+        }
+        int numShards;
+        BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(countFile), "UTF-8"));
+        try {
+            numShards = Integer.parseInt(in.readLine().trim());
+        } catch (RuntimeException e) {
+            throw new IOException("Corrupt " + countFile, e);
+        } finally {
+            in.close();
+        }
+        List<IndexReader> shards = new ArrayList<IndexReader>();
+        try {
+            for (int i = 0; i < numShards; i++) {
+                File shardDir = new File(indexDir, "shard-" + i);
+                if (!shardDir.isDirectory()) {
+                    throw new FileNotFoundException("Shard " + i + " of " + numShards + " is missing: " + shardDir);
+                }
+                shards.add(DirectoryReader.open(FSDirectory.open(shardDir)));
+            }
+        } catch (IOException e) {
+            for (IndexReader shard : shards) {
+                shard.close();
+            }
+            throw e;
+        }
+        return new MultiReader(shards.toArray(new IndexReader[shards.size()]));
+    }
+
+    /**
+     * Prints the getStats figures over all shards.
+     *
+     * @param indexDir - Directory given to {@link #build}
+     * @throws IOException if the index cannot be opened (see {@link #open})
+     */
+
+    public static void printStats(String indexDir) throws IOException {
+        IndexReader indexReader = open(new File(indexDir));
+        try {
+            indexStats stats = indexStats.collect(indexReader, "TEXT", "new");
+            System.out.print("\n");
+            System.out.println("**************************************************************************");
+            System.out.println("Index: " + (indexReader instanceof MultiReader
+                    ? "MultiReader over " + indexReader.leaves().size() + " shard segment(s)" : "merged"));
+            System.out.println("Total number of documents in the Corpus: " + stats.numDocs);
+            System.out.println("Number of documents containing the term \"new\" for field \"TEXT\": " + stats.termDocFreq);
+            System.out.println("Number of occurences of \"new\" in the field \"TEXT\": " + stats.termTotalFreq);
+            System.out.println("Size of the vocabulary for this field: " + stats.vocabularySize);
+            System.out.println("Number of documents that have at least one term for this field: " + stats.fieldDocCount);
+            System.out.println("Number of tokens for this field: " + stats.sumTotalTermFreq);
+            System.out.println("Number of postings for this field: " + stats.sumDocFreq);
+            System.out.println("**************************************************************************");
+        } finally {
+            indexReader.close();
+        }
+    }
+
+    private static void deleteRecursively(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,126 @@
+/**
+ * syntheticCorpus writes a reproducible TREC corpus of any size, laid out like the LA Times
+ * collection: DOCNO, HEAD, optional BYLINE and DATELINE, and a TEXT of <tt>&lt;P&gt;</tt>
+ * paragraphs. Words are drawn from a Zipf distributed vocabulary whose most frequent words are
+ * common English words (including "new"), so term statistics look like those of real text.
+ * The program usage is given below:
+ *
+ * <tt>java syntheticCorpus <Output Directory> <Number of Documents> [Documents per File] [Seed]</tt>
+ *
+ */
+import java.io.*;
+import java.util.Arrays;
+import java.util.Random;
+
+public class syntheticCorpus {
+
+    private static final String[] COMMON_WORDS = {
+            "the", "of", "to", "and", "a", "in", "is", "it", "that", "for", "was", "on", "he", "with",
+            "as", "by", "at", "said", "new", "from", "his", "an", "be", "has", "are", "have", "but",
+            "not", "they", "who", "were", "been", "their", "had", "will", "would", "year", "city",
+            "county", "state", "police", "school", "angeles", "los", "times", "people", "first", "last"
+    };
+    private static final int VOCABULARY_SIZE = 50000;
+
+    private final Random random;
+    private final String[] vocabulary = new String[VOCABULARY_SIZE];
+    private final double[] cumulative = new double[VOCABULARY_SIZE];
+
+    public syntheticCorpus(long seed) {
+        random = new Random(seed);
+        System.arraycopy(COMMON_WORDS, 0, vocabulary, 0, COMMON_WORDS.length);
+        char[] letters = new char[12];
+        for (int i = COMMON_WORDS.length; i < VOCABULARY_SIZE; i++) {
+            int length = 3 + random.nextInt(9);
+            for (int j = 0; j < length; j++) {
+                letters[j] = (char) ('a' + random.nextInt(26));
+            }
+            vocabulary[i] = new String(letters, 0, length);
+        }
+        double sum = 0;
+        for (int i = 0; i < VOCABULARY_SIZE; i++) {
+            sum += 1.0 / (i + 1);
+            cumulative[i] = sum;
+        }
+        for (int i = 0; i < VOCABULARY_SIZE; i++) {
+            cumulative[i] /= sum;
+        }
+    }
+
+    /**
+     *
+     * @param dir         - Directory the <tt>.trectext</tt> files are written to
+     * @param numDocs     - Number of documents to generate
+     * @param docsPerFile - Number of documents per file
+     * @return the files written
+     * @throws IOException
+     */
+
+    public File[] generate(File dir, int numDocs, int docsPerFile) throws IOException {
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Cannot create " + dir);
+        }
+        int numFiles = (numDocs + docsPerFile - 1) / docsPerFile;
+        File[] files = new File[numFiles];
+        int docno = 0;
+        for (int f = 0; f < numFiles; f++) {
+            files[f] = new File(dir, String.format("syn%05d.trectext", f));
+            Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(files[f]), "UTF-8"));
+            try {
+                for (int d = 0; d < docsPerFile && docno < numDocs; d++) {
+                    writeDocument(out, ++docno);
+                }
+            } finally {
+                out.close();
+            }
+        }
+        return files;
+    }
+
+    private void writeDocument(Writer out, int docno) throws IOException {
+        out.write("<DOC>\n<DOCNO> SYN" + String.format("%08d", docno) + " </DOCNO>\n");
+        out.write("<HEAD>\n<P>\n" + sentence(5 + random.nextInt(8)) + "\n</P>\n</HEAD>\n");
+        if (random.nextInt(3) == 0) {
+            out.write("<BYLINE>\n<P>\nBy " + capitalize(word()) + " " + capitalize(word()) + ", Times Staff Writer\n</P>\n</BYLINE>\n");
+        }
+        if (random.nextInt(2) == 0) {
+            out.write("<DATELINE>\n<P>\n" + capitalize(word()).toUpperCase() + "\n</P>\n</DATELINE>\n");
+        }
+        out.write("<TEXT>\n");
+        int paragraphs = 3 + random.nextInt(6);
+        for (int p = 0; p < paragraphs; p++) {
+            out.write("<P>\n" + sentence(20 + random.nextInt(41)) + "\n</P>\n");
+        }
+        out.write("</TEXT>\n</DOC>\n");
+    }
+
+    private String sentence(int words) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(capitalize(word()));
+        for (int i = 1; i < words; i++) {
+            sb.append(i % 12 == 0 ? ", " : " ").append(word());
+        }
+        return sb.append('.').toString();
+    }
+
+    private String word() {
+        int index = Arrays.binarySearch(cumulative, random.nextDouble());
+        return vocabulary[Math.min(index < 0 ? -index - 1 : index, VOCABULARY_SIZE - 1)];
+    }
+
+    private static String capitalize(String word) {
+        return Character.toUpperCase(word.charAt(0)) + word.substring(1);
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.out.println("Usage: java " + syntheticCorpus.class.getName() + " <Output Directory> <Number of Documents> [Documents per File] [Seed]");
+            System.exit(-1);
+        }
+        int numDocs = Integer.parseInt(args[1]);
+        int docsPerFile = args.length > 2 ? Integer.parseInt(args[2]) : 500;
+        long seed = args.length > 3 ? Long.parseLong(args[3]) : 42;
+        File[] files = new syntheticCorpus(seed).generate(new File(args[0]), numDocs, docsPerFile);
+        System.out.println("Wrote " + numDocs + " documents to " + files.length + " file(s) in " + args[0]);
+    }
+}
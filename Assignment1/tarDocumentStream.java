@@ -0,0 +1,72 @@
+/**
+ * tarDocumentStream returns the documents of every TREC file inside a tar archive, one entry
+ * after the other, straight from the archive stream. Entries named <tt>*.trectext</tt> or
+ * <tt>*.trectext.gz</tt> are parsed; directories and other files are skipped.
+ *
+ * Uses TarArchiveInputStream from Apache Commons Compress.
+ *
+ */
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+
+import java.io.*;
+import java.util.zip.GZIPInputStream;
+
+public class tarDocumentStream implements trecDocumentStream {
+
+    private final TarArchiveInputStream archive;
+    private final corpusInput input;
+    private trecParser current;
+
+    /**
+     *
+     * @param archive - Uncompressed tar stream
+     * @param input   - Counts the archive entries that are parsed
+     */
+
+    public tarDocumentStream(InputStream archive, corpusInput input) {
+        this.archive = new TarArchiveInputStream(archive);
+        this.input = input;
+    }
+
+    @Override
+    public trecDocument next() throws IOException {
+        while (true) {
+            if (current != null) {
+                trecDocument doc = current.next();
+                if (doc != null) {
+                    return doc;
+                }
+                current.close();
+                current = null;
+            }
+            TarArchiveEntry entry = archive.getNextTarEntry();
+            if (entry == null) {
+                return null;
+            }
+            String name = entry.getName().toLowerCase();
+            if (!entry.isFile() || !(name.endsWith(".trectext") || name.endsWith(".trectext.gz"))) {
+                continue;
+            }
+            input.archiveEntries.incrementAndGet();
+            // the entry stream must not close the archive when the entry is done
+            InputStream entryStream = new FilterInputStream(archive) {
+                @Override
+                public void close() {
+                }
+            };
+            if (name.endsWith(".gz")) {
+                entryStream = new GZIPInputStream(entryStream, 64 * 1024);
+            }
+            current = new trecParser(new InputStreamReader(entryStream));
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (current != null) {
+            current.close();
+        }
+        archive.close();
+    }
+}
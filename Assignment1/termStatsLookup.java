@@ -0,0 +1,288 @@
+/**
+ * termStatsLookup answers docFreq/totalTermFreq for many terms over one or more indexes that
+ * stay open between calls. A batch is sorted once and resolved with one ordered pass per
+ * segment and field, reusing a single TermsEnum and seeking forward with seekExact, instead of
+ * one IndexReader.docFreq call per term. Resolved terms are kept in a bounded LRU cache, so
+ * repeated lookups of hot terms do not touch the index at all.
+ *
+ * Terms are looked up exactly as given; they are not run through the analyzer of the index.
+ * As with IndexReader.docFreq, frequencies include deleted documents until they are merged
+ * away, and totalTermFreq is -1 for fields indexed without frequencies (DOCNO).
+ *
+ * The term file holds one term per line, either <tt>field:term</tt> or a bare term in the
+ * default field. An index directory that is not itself an index but holds indexes, such as
+ * the output of indexComparison, is expanded to every index under it. The program usage is
+ * given below:
+ *
+ * <tt>java termStatsLookup <Terms File> <Index Directory>... [--field F] [--cache-size N]</tt>
+ *
+ */
+import org.apache.lucene.index.*;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.BytesRef;
+
+import java.io.*;
+import java.util.*;
+
+public class termStatsLookup implements Closeable {
+
+    private final Map<String, IndexReader> readers = new LinkedHashMap<String, IndexReader>();
+    private final lruCache<String, long[]> cache;
+
+    /**
+     *
+     * @param indexDirs    - Index directories, or directories holding index directories
+     * @param cacheEntries - Number of term statistics kept in the cache
+     * @throws IOException
+     */
+
+    public termStatsLookup(List<String> indexDirs, int cacheEntries) throws IOException {
+        this.cache = new lruCache<String, long[]>(cacheEntries);
+        try {
+            for (String indexDir : indexDirs) {
+                open(new File(indexDir));
+            }
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+    }
+
+    private void open(File dir) throws IOException {
+        Directory directory = FSDirectory.open(dir);
+        if (DirectoryReader.indexExists(directory)) {
+            readers.put(dir.getPath(), DirectoryReader.open(directory));
+            return;
+        }
+        directory.close();
+        File[] children = dir.listFiles();
+        if (children == null) {
+            throw new FileNotFoundException("Not an index directory: " + dir);
+        }
+        Arrays.sort(children);
+        int found = readers.size();
+        for (File child : children) {
+            if (child.isDirectory()) {
+                Directory childDirectory = FSDirectory.open(child);
+                if (DirectoryReader.indexExists(childDirectory)) {
+                    readers.put(child.getPath(), DirectoryReader.open(childDirectory));
+                } else {
+                    childDirectory.close();
+                }
+            }
+        }
+        if (readers.size() == found) {
+            throw new FileNotFoundException("No index found in " + dir);
+        }
+    }
+
+    public Set<String> indexes() {
+        return readers.keySet();
+    }
+
+    /**
+     *
+     * @param index - One of {@link #indexes()}
+     * @param terms - Terms to look up, in any order and possibly repeated
+     * @return {docFreq, totalTermFreq} for each term, in the order of <tt>terms</tt>; every array
+     *         is a copy of the cached one, so callers may change it
+     * @throws IOException
+     */
+
+    public long[][] lookup(String index, List<Term> terms) throws IOException {
+        IndexReader reader = readers.get(index);
+        if (reader == null) {
+            throw new IllegalArgumentException("Unknown index: " + index);
+        }
+        long[][] results = new long[terms.size()][];
+        SortedMap<Term, long[]> misses = new TreeMap<Term, long[]>();
+        for (int i = 0; i < results.length; i++) {
+            results[i] = cache.get(cacheKey(index, terms.get(i)));
+            if (results[i] == null && !misses.containsKey(terms.get(i))) {
+                misses.put(terms.get(i), new long[2]);
+            }
+        }
+        if (!misses.isEmpty()) {
+            resolve(reader, misses);
+            for (Map.Entry<Term, long[]> miss : misses.entrySet()) {
+                cache.put(cacheKey(index, miss.getKey()), miss.getValue());
+            }
+            for (int i = 0; i < results.length; i++) {
+                if (results[i] == null) {
+                    results[i] = misses.get(terms.get(i));
+                }
+            }
+        }
+        for (int i = 0; i < results.length; i++) {
+            results[i] = results[i].clone();
+        }
+        return results;
+    }
+
+    /**
+     *
+     * @param terms - Terms to look up
+     * @return index name to {docFreq, totalTermFreq} per term, for every open index
+     * @throws IOException
+     */
+
+    public Map<String, long[][]> lookupAll(List<Term> terms) throws IOException {
+        Map<String, long[][]> results = new LinkedHashMap<String, long[][]>();
+        for (String index : readers.keySet()) {
+            results.put(index, lookup(index, terms));
+        }
+        return results;
+    }
+
+    // sums the statistics of every term over the segments; the terms arrive sorted by field and
+    // then by bytes, which is the order TermsEnum seeks in most cheaply
+    private static void resolve(IndexReader reader, SortedMap<Term, long[]> terms) throws IOException {
+        for (AtomicReaderContext leaf : reader.leaves()) {
+            Fields fields = leaf.reader().fields();
+            if (fields == null) {
+                continue;
+            }
+            String field = null;
+            TermsEnum termsEnum = null;
+            boolean hasField = false;
+            for (Map.Entry<Term, long[]> entry : terms.entrySet()) {
+                Term term = entry.getKey();
+                if (!term.field().equals(field)) {
+                    field = term.field();
+                    Terms fieldTerms = fields.terms(field);
+                    hasField = fieldTerms != null;
+                    if (hasField) {
+                        termsEnum = fieldTerms.iterator(termsEnum);
+                    }
+                }
+                if (hasField && termsEnum.seekExact(term.bytes())) {
+                    long[] stats = entry.getValue();
+                    stats[0] += termsEnum.docFreq();
+                    long totalTermFreq = termsEnum.totalTermFreq();
+                    stats[1] = totalTermFreq < 0 || stats[1] < 0 ? -1 : stats[1] + totalTermFreq;
+                }
+            }
+        }
+    }
+
+    private static String cacheKey(String index, Term term) {
+        return index + '\u0000' + term.field() + '\u0000' + term.text();
+    }
+
+    public lruCache<String, long[]> getCache() {
+        return cache;
+    }
+
+    @Override
+    public void close() throws IOException {
+        IOException failure = null;
+        for (IndexReader reader : readers.values()) {
+            try {
+                reader.close();
+            } catch (IOException e) {
+                failure = e;
+            }
+        }
+        readers.clear();
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     *
+     * @param termsFile    - One term per line, <tt>field:term</tt> or a bare term
+     * @param defaultField - Field of bare terms
+     * @return the terms in file order; blank lines are skipped
+     * @throws IOException
+     */
+
+    public static List<Term> readTerms(File termsFile, String defaultField) throws IOException {
+        List<Term> terms = new ArrayList<Term>();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(termsFile), "UTF-8"));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (line.isEmpty()) {
+                    continue;
+                }
+                int colon = line.indexOf(':');
+                if (colon > 0) {
+                    terms.add(new Term(line.substring(0, colon), line.substring(colon + 1)));
+                } else {
+                    terms.add(new Term(defaultField, line));
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        return terms;
+    }
+
+    public static void printTable(List<Term> terms, Map<String, long[][]> results, PrintStream out) {
+        StringBuilder header = new StringBuilder(String.format("%-30s", "Term"));
+        for (String index : results.keySet()) {
+            String name = new File(index).getName();
+            header.append(String.format(" %14s %14s", abbreviate(name, 10) + " df", abbreviate(name, 10) + " ttf"));
+        }
+        out.println(header);
+        for (int i = 0; i < terms.size(); i++) {
+            StringBuilder row = new StringBuilder(String.format("%-30s", terms.get(i).field() + ":" + terms.get(i).text()));
+            for (long[][] stats : results.values()) {
+                row.append(String.format(" %14d %14d", stats[i][0], stats[i][1]));
+            }
+            out.println(row);
+        }
+    }
+
+    private static String abbreviate(String name, int length) {
+        return name.length() <= length ? name : name.substring(0, length);
+    }
+
+    public static void main(String[] args) {
+        if (args.length < 2) {
+            System.out.println("Usage: java " + termStatsLookup.class.getName() + " <Terms File> <Index Directory>... [--field F] [--cache-size N]");
+            System.exit(-1);
+        }
+        String defaultField = "TEXT";
+        int cacheSize = 100000;
+        List<String> indexDirs = new ArrayList<String>();
+        for (int i = 1; i < args.length; i++) {
+            if (args[i].equals("--field") && i + 1 < args.length) {
+                defaultField = args[++i];
+            } else if (args[i].equals("--cache-size") && i + 1 < args.length) {
+                cacheSize = Integer.parseInt(args[++i]);
+            } else if (args[i].startsWith("--")) {
+                System.out.println("Unknown option: " + args[i]);
+                System.exit(-1);
+            } else {
+                indexDirs.add(args[i]);
+            }
+        }
+        termStatsLookup lookup = null;
+        try {
+            List<Term> terms = readTerms(new File(args[0]), defaultField);
+            lookup = new termStatsLookup(indexDirs, cacheSize);
+            long start = System.nanoTime();
+            Map<String, long[][]> results = lookup.lookupAll(terms);
+            long elapsed = System.nanoTime() - start;
+            printTable(terms, results, System.out);
+            System.out.println("**************************************************************************");
+            System.out.println(String.format("Looked up %d terms in %d indexes in %.2f ms",
+                    terms.size(), results.size(), elapsed / 1e6));
+            System.out.println("**************************************************************************");
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            try {
+                if (lookup != null) {
+                    lookup.close();
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+}
@@ -0,0 +1,56 @@
+/**
+ * timedAnalyzer wraps an Analyzer and estimates how much of addDocument is spent in analysis.
+ * Timing every token would cost about as much as producing it, so only every 64th call to
+ * incrementToken() is timed and counted 64 times into the {@link indexMetrics#ANALYSIS} stage.
+ *
+ */
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.AnalyzerWrapper;
+import org.apache.lucene.analysis.TokenFilter;
+import org.apache.lucene.analysis.TokenStream;
+
+import java.io.IOException;
+
+public class timedAnalyzer extends AnalyzerWrapper {
+
+    private static final int SAMPLE_INTERVAL = 64;
+
+    private final Analyzer analyzer;
+    private final indexMetrics metrics;
+
+    public timedAnalyzer(Analyzer analyzer, indexMetrics metrics) {
+        super(analyzer.getReuseStrategy());
+        this.analyzer = analyzer;
+        this.metrics = metrics;
+    }
+
+    @Override
+    protected Analyzer getWrappedAnalyzer(String fieldName) {
+        return analyzer;
+    }
+
+    @Override
+    protected TokenStreamComponents wrapComponents(String fieldName, TokenStreamComponents components) {
+        return new TokenStreamComponents(components.getTokenizer(), new samplingTimer(components.getTokenStream()));
+    }
+
+    private class samplingTimer extends TokenFilter {
+
+        private int calls;
+
+        samplingTimer(TokenStream input) {
+            super(input);
+        }
+
+        @Override
+        public boolean incrementToken() throws IOException {
+            if (++calls % SAMPLE_INTERVAL != 0) {
+                return input.incrementToken();
+            }
+            long start = System.nanoTime();
+            boolean more = input.incrementToken();
+            metrics.addTime(indexMetrics.ANALYSIS, (System.nanoTime() - start) * SAMPLE_INTERVAL);
+            return more;
+        }
+    }
+}
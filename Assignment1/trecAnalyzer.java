@@ -0,0 +1,201 @@
+/**
+ * trecAnalyzer is a purpose-built analyzer for newswire text that does the work of
+ * StandardAnalyzer (tokenize, lowercase, drop English stopwords) in a single pass without
+ * allocating anything per token:
+ *
+ *  - the tokenizer reads the text in blocks into its own char buffer and copies every letter or
+ *    digit, lowercased, straight into the term buffer of the token
+ *  - stopwords are looked up in an open-addressing hash table of char arrays, by hashing the
+ *    term buffer itself, so no String or CharSequence is built for the lookup
+ *  - a dropped stopword is counted into the position increment of the next token, as StopFilter
+ *    does, so phrase queries see the same gaps
+ *
+ * A token is a maximal run of letters and digits, at most 255 chars long. Unlike the grammar of
+ * StandardAnalyzer it does not keep <tt>don't</tt>, <tt>3.5</tt> or <tt>U.S.</tt> together; those
+ * are split at the punctuation. The stopwords are those of StopAnalyzer (and StandardAnalyzer).
+ *
+ */
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.Tokenizer;
+import org.apache.lucene.analysis.core.StopAnalyzer;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.analysis.tokenattributes.OffsetAttribute;
+import org.apache.lucene.analysis.tokenattributes.PositionIncrementAttribute;
+import org.apache.lucene.analysis.util.CharArraySet;
+
+import java.io.IOException;
+import java.io.Reader;
+
+public class trecAnalyzer extends Analyzer {
+
+    public static final int MAX_TOKEN_LENGTH = 255;
+
+    private final stopSet stopWords;
+
+    public trecAnalyzer() {
+        this(StopAnalyzer.ENGLISH_STOP_WORDS_SET);
+    }
+
+    /**
+     *
+     * @param stopWords - Lowercase words that are dropped
+     */
+
+    public trecAnalyzer(CharArraySet stopWords) {
+        this.stopWords = new stopSet(stopWords);
+    }
+
+    @Override
+    protected TokenStreamComponents createComponents(String fieldName, Reader reader) {
+        return new TokenStreamComponents(new trecTokenizer(reader, stopWords));
+    }
+
+    /**
+     * Set of words held as char arrays in an open-addressing table with linear probing, at most
+     * a quarter full. It is filled once and only read afterwards, so it is safe to share.
+     */
+
+    static final class stopSet {
+
+        private final char[][] keys;
+        private final int mask;
+
+        stopSet(CharArraySet words) {
+            int capacity = 16;
+            while (capacity < words.size() * 4) {
+                capacity <<= 1;
+            }
+            keys = new char[capacity][];
+            mask = capacity - 1;
+            for (Object word : words) {
+                char[] key = word instanceof char[] ? ((char[]) word).clone() : word.toString().toCharArray();
+                int slot = hash(key, key.length) & mask;
+                while (keys[slot] != null) {
+                    slot = (slot + 1) & mask;
+                }
+                keys[slot] = key;
+            }
+        }
+
+        private static int hash(char[] buffer, int length) {
+            int h = 0;
+            for (int i = 0; i < length; i++) {
+                h = 31 * h + buffer[i];
+            }
+            return h ^ (h >>> 16);
+        }
+
+        /**
+         *
+         * @param buffer - Chars of the word
+         * @param length - Number of chars used in the buffer
+         * @return true if the first <tt>length</tt> chars of the buffer are in the set
+         */
+
+        boolean contains(char[] buffer, int length) {
+            int slot = hash(buffer, length) & mask;
+            char[] key;
+            while ((key = keys[slot]) != null) {
+                if (key.length == length) {
+                    int i = 0;
+                    while (i < length && key[i] == buffer[i]) {
+                        i++;
+                    }
+                    if (i == length) {
+                        return true;
+                    }
+                }
+                slot = (slot + 1) & mask;
+            }
+            return false;
+        }
+    }
+
+    static final class trecTokenizer extends Tokenizer {
+
+        private static final int IO_BUFFER_SIZE = 4096;
+
+        private final CharTermAttribute termAtt = addAttribute(CharTermAttribute.class);
+        private final OffsetAttribute offsetAtt = addAttribute(OffsetAttribute.class);
+        private final PositionIncrementAttribute posIncAtt = addAttribute(PositionIncrementAttribute.class);
+        private final stopSet stopWords;
+        private final char[] ioBuffer = new char[IO_BUFFER_SIZE];
+        private int bufferIndex;
+        private int dataLength;
+        // offset of ioBuffer[0] in the input
+        private int offset;
+        private int finalOffset;
+
+        trecTokenizer(Reader input, stopSet stopWords) {
+            super(input);
+            this.stopWords = stopWords;
+        }
+
+        private static boolean isTokenChar(char c) {
+            return Character.isLetterOrDigit(c) || Character.isSurrogate(c);
+        }
+
+        @Override
+        public boolean incrementToken() throws IOException {
+            clearAttributes();
+            int skipped = 0;
+            while (true) {
+                char[] term = termAtt.buffer();
+                int length = 0;
+                int start = 0;
+                while (true) {
+                    if (bufferIndex >= dataLength) {
+                        offset += dataLength;
+                        dataLength = input.read(ioBuffer);
+                        bufferIndex = 0;
+                        if (dataLength <= 0) {
+                            dataLength = 0;
+                            if (length > 0) {
+                                break;
+                            }
+                            finalOffset = correctOffset(offset);
+                            return false;
+                        }
+                    }
+                    char c = ioBuffer[bufferIndex++];
+                    if (isTokenChar(c)) {
+                        if (length == 0) {
+                            start = offset + bufferIndex - 1;
+                        } else if (length == term.length) {
+                            term = termAtt.resizeBuffer(length + 1);
+                        }
+                        term[length++] = Character.toLowerCase(c);
+                        if (length == MAX_TOKEN_LENGTH) {
+                            break;
+                        }
+                    } else if (length > 0) {
+                        break;
+                    }
+                }
+                if (stopWords.contains(term, length)) {
+                    skipped++;
+                    continue;
+                }
+                termAtt.setLength(length);
+                posIncAtt.setPositionIncrement(1 + skipped);
+                offsetAtt.setOffset(correctOffset(start), correctOffset(start + length));
+                return true;
+            }
+        }
+
+        @Override
+        public void end() throws IOException {
+            super.end();
+            offsetAtt.setOffset(finalOffset, finalOffset);
+        }
+
+        @Override
+        public void reset() throws IOException {
+            super.reset();
+            bufferIndex = 0;
+            dataLength = 0;
+            offset = 0;
+            finalOffset = 0;
+        }
+    }
+}
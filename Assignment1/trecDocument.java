@@ -0,0 +1,58 @@
+/**
+ * trecDocument holds the fields of one <tt>&lt;DOC&gt;</tt> of a TREC corpus file, as produced
+ * by {@link trecParser}. A field is <tt>null</tt> when its tag does not occur in the document;
+ * when a tag occurs more than once the values are joined with a single space. The DOCNO is
+ * normalized here, once, with {@link #normalizeDocno}; the index, the manifest and the sidecar
+ * body store all use it in that form.
+ *
+ */
+import org.apache.lucene.document.Document;
+
+public class trecDocument {
+
+    public final String docno;
+    public final String head;
+    public final String byline;
+    public final String dateline;
+    public final String text;
+
+    public trecDocument(String docno, String head, String byline, String dateline, String text) {
+        this.docno = normalizeDocno(docno);
+        this.head = head;
+        this.byline = byline;
+        this.dateline = dateline;
+        this.text = text;
+    }
+
+    /**
+     * The parser keeps the whitespace around the DOCNO (<tt>&lt;DOCNO&gt; LA010189-0001 &lt;/DOCNO&gt;</tt>);
+     * lookups by an external ID must go through this method as well.
+     *
+     * @param docno - DOCNO as found in the corpus or as given by a user, may be null
+     * @return the DOCNO without surrounding whitespace
+     */
+
+    public static String normalizeDocno(String docno) {
+        return docno == null ? null : docno.trim();
+    }
+
+    /**
+     *
+     * @return the Lucene document that is added to the index for this TREC document, in the
+     *         original layout where every field is stored (see {@link indexSchema#DEFAULT})
+     */
+
+    public Document toDocument() {
+        return indexSchema.DEFAULT.toDocument(this);
+    }
+
+    /**
+     *
+     * @param schema - Decides how each field is stored and indexed
+     * @return the Lucene document that is added to the index for this TREC document
+     */
+
+    public Document toDocument(indexSchema schema) {
+        return schema.toDocument(this);
+    }
+}
@@ -0,0 +1,18 @@
+/**
+ * trecDocumentStream is a source of TREC documents that are handed out one at a time, such as
+ * a {@link trecParser} over one file or a {@link tarDocumentStream} over all files of an archive.
+ *
+ */
+import java.io.Closeable;
+import java.io.IOException;
+
+public interface trecDocumentStream extends Closeable {
+
+    /**
+     *
+     * @return the next document, or <tt>null</tt> when there are no more documents
+     * @throws IOException
+     */
+
+    trecDocument next() throws IOException;
+}
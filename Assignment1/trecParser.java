@@ -0,0 +1,195 @@
+/**
+ * trecParser is a streaming, single pass parser for TREC corpus files. It reads the input
+ * through a fixed size buffer, tracks <tt>&lt;DOC&gt;</tt> and field boundaries as it goes and
+ * returns one {@link trecDocument} at a time, so memory use is bounded by the largest document
+ * rather than by the size of the file.
+ *
+ * The fields extracted are DOCNO, HEAD, BYLINE, DATELINE and TEXT. Anything else inside a field
+ * (for example the <tt>&lt;P&gt;</tt> tags in TEXT) is kept as part of the field value. A field or
+ * document that is not terminated before <tt>&lt;/DOC&gt;</tt> or the end of the input is dropped.
+ * Unlike the old readLine() based reading, line breaks are kept, so words on adjacent lines are
+ * no longer glued together.
+ *
+ * Usage:
+ * <pre>
+ *     trecParser parser = new trecParser(reader);
+ *     trecDocument doc;
+ *     while ((doc = parser.next()) != null) { ... }
+ *     parser.close();
+ * </pre>
+ *
+ */
+import java.io.*;
+
+public class trecParser implements trecDocumentStream {
+
+    public static final String DOC = "<DOC>";
+    public static final String TERMINATING_DOC = "</DOC>";
+
+    private static final String[] FIELDS = {"DOCNO", "HEAD", "BYLINE", "DATELINE", "TEXT"};
+    private static final String[] OPENING_TAGS = new String[FIELDS.length];
+    private static final String[] TERMINATING_TAGS = new String[FIELDS.length];
+    private static final int MAX_TAG_LENGTH;
+
+    static {
+        int maxLength = TERMINATING_DOC.length();
+        for (int i = 0; i < FIELDS.length; i++) {
+            OPENING_TAGS[i] = "<" + FIELDS[i] + ">";
+            TERMINATING_TAGS[i] = "</" + FIELDS[i] + ">";
+            maxLength = Math.max(maxLength, TERMINATING_TAGS[i].length());
+        }
+        MAX_TAG_LENGTH = maxLength;
+    }
+
+    private final Reader reader;
+    private final char[] buffer;
+    private int position;
+    private int limit;
+    private final StringBuilder tag = new StringBuilder(MAX_TAG_LENGTH);
+    private final StringBuilder value = new StringBuilder();
+
+    public trecParser(Reader reader) {
+        this(reader, 64 * 1024);
+    }
+
+    public trecParser(Reader reader, int bufferSize) {
+        this.reader = reader;
+        this.buffer = new char[bufferSize];
+    }
+
+    /**
+     *
+     * @param file - TREC file to be parsed, read with the platform default encoding
+     * @throws IOException
+     */
+
+    public trecParser(File file) throws IOException {
+        this(new InputStreamReader(new FileInputStream(file)));
+    }
+
+    /**
+     *
+     * @return the next document in the input, or <tt>null</tt> when the input is exhausted
+     * @throws IOException
+     */
+
+    @Override
+    public trecDocument next() throws IOException {
+        boolean inDoc = false;
+        int field = -1;
+        StringBuilder[] fields = new StringBuilder[FIELDS.length];
+        while (position < limit || fill()) {
+            int start = position;
+            while (position < limit && buffer[position] != '<') {
+                position++;
+            }
+            if (field >= 0) {
+                value.append(buffer, start, position - start);
+            }
+            if (position == limit) {
+                continue;
+            }
+            position++;
+            if (!readTag()) {
+                if (field >= 0) {
+                    value.append(tag);
+                }
+                continue;
+            }
+            if (!inDoc) {
+                if (tagEquals(DOC)) {
+                    inDoc = true;
+                }
+            } else if (tagEquals(TERMINATING_DOC)) {
+                return toDocument(fields);
+            } else if (field >= 0) {
+                if (tagEquals(TERMINATING_TAGS[field])) {
+                    if (fields[field] == null) {
+                        fields[field] = new StringBuilder(value.length());
+                    } else {
+                        fields[field].append(' ');
+                    }
+                    fields[field].append(value);
+                    field = -1;
+                } else {
+                    value.append(tag);
+                }
+            } else {
+                for (int i = 0; i < FIELDS.length; i++) {
+                    if (tagEquals(OPENING_TAGS[i])) {
+                        field = i;
+                        value.setLength(0);
+                        break;
+                    }
+                }
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+
+    /**
+     * Reads the rest of a tag after its '<' into {@link #tag}. Stops at '>', at the maximum
+     * length of a tag we are interested in, or just before the next '<'.
+     *
+     * @return true if a complete tag was read
+     */
+
+    private boolean readTag() throws IOException {
+        tag.setLength(0);
+        tag.append('<');
+        int c;
+        while (tag.length() < MAX_TAG_LENGTH && (c = read()) != -1) {
+            if (c == '<') {
+                position--;
+                return false;
+            }
+            tag.append((char) c);
+            if (c == '>') {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean tagEquals(String expected) {
+        if (tag.length() != expected.length()) {
+            return false;
+        }
+        for (int i = 0; i < expected.length(); i++) {
+            if (tag.charAt(i) != expected.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int read() throws IOException {
+        if (position == limit && !fill()) {
+            return -1;
+        }
+        return buffer[position++];
+    }
+
+    private boolean fill() throws IOException {
+        limit = reader.read(buffer, 0, buffer.length);
+        position = 0;
+        if (limit <= 0) {
+            limit = 0;
+            return false;
+        }
+        return true;
+    }
+
+    private static trecDocument toDocument(StringBuilder[] fields) {
+        String[] values = new String[FIELDS.length];
+        for (int i = 0; i < FIELDS.length; i++) {
+            values[i] = fields[i] == null ? null : fields[i].toString();
+        }
+        return new trecDocument(values[0], values[1], values[2], values[3], values[4]);
+    }
+}
@@ -0,0 +1,399 @@
+/**
+ * vocabularyStats walks the whole vocabulary of an index and reports, for every indexed field,
+ * the number of distinct terms, the top-k terms by document frequency and by total term
+ * frequency, and log2 histograms of both. The full term list is streamed to a gzip TSV file
+ * with one <tt>field term df ttf</tt> line per term, in field and term order.
+ *
+ * The TermsEnum of every segment is read in parallel: a reader task decodes the next batch of
+ * terms of one segment with their frequencies, and the task of the field merges the batches of
+ * all segments term by term and writes every merged term straight away. Each segment has at
+ * most one batch being merged and one being read ahead, so memory stays bounded however large
+ * the vocabulary. Fields are also merged in parallel, to separate gzip members in temporary
+ * files next to the output, which are then concatenated in field order (a gzip file may
+ * consist of several members). The merged
+ * MultiFields view is never used; it re-merges every TermsEnum call and is much slower on an
+ * index with many segments. As with
+ * IndexReader.docFreq, the frequencies include deleted documents until they are merged away.
+ * Fields indexed without frequencies (DOCNO) have a ttf of -1. The program usage is given below:
+ *
+ * <tt>java vocabularyStats <Index Directory> <Output File> [--top K] [--threads N]</tt>
+ *
+ */
+import org.apache.lucene.index.*;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.BytesRef;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.zip.GZIPOutputStream;
+
+public class vocabularyStats {
+
+    public static final int HISTOGRAM_BUCKETS = 64;
+
+    /**
+     * fieldSummary holds what is reported for one field.
+     */
+
+    public static class fieldSummary {
+
+        public final String field;
+        public long terms;
+        public final long[] dfHistogram = new long[HISTOGRAM_BUCKETS];
+        public final long[] ttfHistogram = new long[HISTOGRAM_BUCKETS];
+        public final List<termCount> topByDocFreq = new ArrayList<termCount>();
+        public final List<termCount> topByTotalTermFreq = new ArrayList<termCount>();
+
+        fieldSummary(String field) {
+            this.field = field;
+        }
+    }
+
+    public static class termCount {
+
+        public final String term;
+        public final long count;
+
+        termCount(String term, long count) {
+            this.term = term;
+            this.count = count;
+        }
+    }
+
+    static final int BATCH_SIZE = 4096;
+
+    // the next terms of one segment with their frequencies; an empty batch ends the segment
+    private static class termBatch {
+
+        final BytesRef[] terms = new BytesRef[BATCH_SIZE];
+        final String[] text = new String[BATCH_SIZE];
+        final long[] docFreq = new long[BATCH_SIZE];
+        final long[] totalTermFreq = new long[BATCH_SIZE];
+        int size;
+    }
+
+    // the position of the merge in one segment; the next batch is read while this one is merged
+    private static class segmentCursor {
+
+        final TermsEnum termsEnum;
+        final ExecutorService readers;
+        Future<termBatch> next;
+        termBatch batch;
+        int position;
+
+        segmentCursor(TermsEnum termsEnum, ExecutorService readers) throws IOException {
+            this.termsEnum = termsEnum;
+            this.readers = readers;
+            this.next = readers.submit(read());
+            advance();
+        }
+
+        // a TermsEnum is not thread-safe, but only one read of a segment is pending at a time
+        private Callable<termBatch> read() {
+            return new Callable<termBatch>() {
+                @Override
+                public termBatch call() throws IOException {
+                    termBatch batch = new termBatch();
+                    BytesRef term;
+                    while (batch.size < BATCH_SIZE && (term = termsEnum.next()) != null) {
+                        batch.terms[batch.size] = BytesRef.deepCopyOf(term);
+                        batch.text[batch.size] = term.utf8ToString();
+                        batch.docFreq[batch.size] = termsEnum.docFreq();
+                        batch.totalTermFreq[batch.size] = termsEnum.totalTermFreq();
+                        batch.size++;
+                    }
+                    return batch;
+                }
+            };
+        }
+
+        BytesRef term() {
+            return batch == null ? null : batch.terms[position];
+        }
+
+        void advance() throws IOException {
+            position++;
+            if (batch != null && position < batch.size) {
+                return;
+            }
+            if (next == null) {
+                batch = null;
+                return;
+            }
+            batch = await(next);
+            position = 0;
+            if (batch.size < BATCH_SIZE) {
+                next = null;
+                if (batch.size == 0) {
+                    batch = null;
+                }
+            } else {
+                next = readers.submit(read());
+            }
+        }
+    }
+
+    private static final Comparator<termCount> BY_COUNT = new Comparator<termCount>() {
+        @Override
+        public int compare(termCount a, termCount b) {
+            if (a.count != b.count) {
+                return a.count < b.count ? -1 : 1;
+            }
+            return b.term.compareTo(a.term);
+        }
+    };
+
+    /**
+     *
+     * @param indexReader - Reader on the index
+     * @param output      - gzip TSV file receiving the full term list
+     * @param topK        - Number of terms kept in each top-k list
+     * @param numThreads  - Number of threads reading segments, and of fields merged at the same time
+     * @return a summary per field, in field name order
+     * @throws IOException
+     */
+
+    public static List<fieldSummary> export(IndexReader indexReader, File output, int topK, int numThreads) throws IOException {
+        SortedSet<String> fieldNames = new TreeSet<String>();
+        for (AtomicReaderContext leaf : indexReader.leaves()) {
+            Fields fields = leaf.reader().fields();
+            if (fields != null) {
+                for (String field : fields) {
+                    fieldNames.add(field);
+                }
+            }
+        }
+        // the field tasks wait for segment reads, so they run on their own pool; the reads never
+        // wait for anything and can share one pool without deadlocking
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(numThreads, fieldNames.size())));
+        final ExecutorService readers = Executors.newFixedThreadPool(Math.max(1, numThreads));
+        List<File> parts = new ArrayList<File>();
+        List<Future<fieldSummary>> exports = new ArrayList<Future<fieldSummary>>();
+        try {
+            for (final String field : fieldNames) {
+                final File part = new File(output.getPath() + "." + parts.size() + ".tmp");
+                parts.add(part);
+                final IndexReader reader = indexReader;
+                final int k = topK;
+                exports.add(executor.submit(new Callable<fieldSummary>() {
+                    @Override
+                    public fieldSummary call() throws IOException {
+                        Writer writer = new BufferedWriter(new OutputStreamWriter(
+                                new GZIPOutputStream(new FileOutputStream(part), 1 << 16), "UTF-8"), 1 << 16);
+                        try {
+                            return merge(reader, field, k, writer, readers);
+                        } finally {
+                            writer.close();
+                        }
+                    }
+                }));
+            }
+            List<fieldSummary> summaries = new ArrayList<fieldSummary>();
+            OutputStream out = new BufferedOutputStream(new FileOutputStream(output), 1 << 16);
+            try {
+                byte[] buffer = new byte[1 << 16];
+                for (int i = 0; i < exports.size(); i++) {
+                    summaries.add(await(exports.get(i)));
+                    InputStream in = new FileInputStream(parts.get(i));
+                    try {
+                        int read;
+                        while ((read = in.read(buffer)) != -1) {
+                            out.write(buffer, 0, read);
+                        }
+                    } finally {
+                        in.close();
+                    }
+                    parts.get(i).delete();
+                }
+            } finally {
+                out.close();
+            }
+            return summaries;
+        } finally {
+            executor.shutdownNow();
+            readers.shutdownNow();
+            for (File part : parts) {
+                part.delete();
+            }
+        }
+    }
+
+    private static fieldSummary merge(IndexReader indexReader, String field, int topK, Writer writer,
+                                      ExecutorService readers) throws IOException {
+        fieldSummary summary = new fieldSummary(field);
+        PriorityQueue<termCount> topDocFreq = new PriorityQueue<termCount>(topK + 1, BY_COUNT);
+        PriorityQueue<termCount> topTotalTermFreq = new PriorityQueue<termCount>(topK + 1, BY_COUNT);
+        List<segmentCursor> segments = new ArrayList<segmentCursor>();
+        for (AtomicReaderContext leaf : indexReader.leaves()) {
+            Terms terms = leaf.reader().terms(field);
+            if (terms != null) {
+                segments.add(new segmentCursor(terms.iterator(null), readers));
+            }
+        }
+        while (true) {
+            // the smallest current term over all segments; segment counts are small, so a linear
+            // scan is cheaper than keeping a heap
+            segmentCursor first = null;
+            for (segmentCursor segment : segments) {
+                if (segment.term() != null && (first == null || segment.term().compareTo(first.term()) < 0)) {
+                    first = segment;
+                }
+            }
+            if (first == null) {
+                break;
+            }
+            // batch terms are copies, so smallest stays valid while the cursors move on
+            BytesRef smallest = first.term();
+            String term = first.batch.text[first.position];
+            long docFreq = 0;
+            long totalTermFreq = 0;
+            for (segmentCursor segment : segments) {
+                if (segment.term() != null && segment.term().bytesEquals(smallest)) {
+                    docFreq += segment.batch.docFreq[segment.position];
+                    long ttf = segment.batch.totalTermFreq[segment.position];
+                    totalTermFreq = ttf < 0 || totalTermFreq < 0 ? -1 : totalTermFreq + ttf;
+                    segment.advance();
+                }
+            }
+            summary.terms++;
+            summary.dfHistogram[bucket(docFreq)]++;
+            offer(topDocFreq, new termCount(term, docFreq), topK);
+            if (totalTermFreq >= 0) {
+                summary.ttfHistogram[bucket(totalTermFreq)]++;
+                offer(topTotalTermFreq, new termCount(term, totalTermFreq), topK);
+            }
+            writer.write(field);
+            writer.write('\t');
+            writer.write(escape(term));
+            writer.write('\t');
+            writer.write(Long.toString(docFreq));
+            writer.write('\t');
+            writer.write(Long.toString(totalTermFreq));
+            writer.write('\n');
+        }
+        drain(topDocFreq, summary.topByDocFreq);
+        drain(topTotalTermFreq, summary.topByTotalTermFreq);
+        return summary;
+    }
+
+    private static void offer(PriorityQueue<termCount> top, termCount candidate, int topK) {
+        if (topK <= 0) {
+            return;
+        }
+        if (top.size() < topK) {
+            top.add(candidate);
+        } else if (BY_COUNT.compare(candidate, top.peek()) > 0) {
+            top.poll();
+            top.add(candidate);
+        }
+    }
+
+    private static void drain(PriorityQueue<termCount> top, List<termCount> descending) {
+        while (!top.isEmpty()) {
+            descending.add(top.poll());
+        }
+        Collections.reverse(descending);
+    }
+
+    // bucket b holds values in [2^b, 2^(b+1)); bucket 0 also holds 0
+    static int bucket(long value) {
+        return value <= 1 ? 0 : 63 - Long.numberOfLeadingZeros(value);
+    }
+
+    private static String escape(String term) {
+        if (term.indexOf('\t') < 0 && term.indexOf('\n') < 0 && term.indexOf('\\') < 0) {
+            return term;
+        }
+        return term.replace("\\", "\\\\").replace("\t", "\\t").replace("\n", "\\n");
+    }
+
+    private static <T> T await(Future<T> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while walking the vocabulary");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("Vocabulary walk failed", e.getCause());
+        }
+    }
+
+    public static void printSummary(List<fieldSummary> summaries, PrintStream out) {
+        for (fieldSummary summary : summaries) {
+            out.println("**************************************************************************");
+            out.println("Field " + summary.field + ": " + summary.terms + " distinct terms");
+            printTop("Top terms by document frequency", summary.topByDocFreq, out);
+            printTop("Top terms by total term frequency", summary.topByTotalTermFreq, out);
+            printHistogram("Document frequency histogram", summary.dfHistogram, out);
+            printHistogram("Total term frequency histogram", summary.ttfHistogram, out);
+        }
+        out.println("**************************************************************************");
+    }
+
+    private static void printTop(String title, List<termCount> top, PrintStream out) {
+        if (top.isEmpty()) {
+            return;
+        }
+        out.println(title + ":");
+        for (int i = 0; i < top.size(); i++) {
+            out.println(String.format("  %3d. %-30s %12d", i + 1, top.get(i).term, top.get(i).count));
+        }
+    }
+
+    private static void printHistogram(String title, long[] histogram, PrintStream out) {
+        int last = histogram.length - 1;
+        while (last >= 0 && histogram[last] == 0) {
+            last--;
+        }
+        if (last < 0) {
+            return;
+        }
+        out.println(title + ":");
+        for (int b = 0; b <= last; b++) {
+            String range = b == 0 ? "1" : (1L << b) + "-" + ((1L << (b + 1)) - 1);
+            out.println(String.format("  %-24s %12d", range, histogram[b]));
+        }
+    }
+
+    public static void main(String[] args) {
+        if (args.length < 2) {
+            System.out.println("Usage: java " + vocabularyStats.class.getName() + " <Index Directory> <Output File> [--top K] [--threads N]");
+            System.exit(-1);
+        }
+        int topK = 20;
+        int numThreads = Runtime.getRuntime().availableProcessors();
+        for (int i = 2; i < args.length; i++) {
+            if (args[i].equals("--top") && i + 1 < args.length) {
+                topK = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("--threads") && i + 1 < args.length) {
+                numThreads = Integer.parseInt(args[++i]);
+            } else {
+                System.out.println("Unknown option: " + args[i]);
+                System.exit(-1);
+            }
+        }
+        IndexReader indexReader = null;
+        try {
+            indexReader = DirectoryReader.open(FSDirectory.open(new File(args[0])));
+            long start = System.nanoTime();
+            List<fieldSummary> summaries = export(indexReader, new File(args[1]), topK, numThreads);
+            printSummary(summaries, System.out);
+            System.out.println(String.format("Merged %d segments on %d threads in %.2f sec, term list written to %s",
+                    indexReader.leaves().size(), numThreads, (System.nanoTime() - start) / 1e9, args[1]));
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            try {
+                if (indexReader != null) {
+                    indexReader.close();
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+}
@@ -0,0 +1,491 @@
+/**
+ * yelpIndex indexes the Yelp dataset straight from its JSON exports, as one Lucene document per
+ * business holding the text of all of its reviews. It replaces the MongoDB based combine_files()
+ * of Project/Utilities.py and needs nothing but the local files. The program usage is given below:
+ *
+ * <tt>java yelpIndex <Business JSON> <Review JSON> <Index Directory> [options]</tt>
+ *
+ * Both exports hold one JSON object per line (a top-level array of objects is accepted too) and
+ * may be gzipped. They are read with the Jackson streaming parser, so no file is ever held in
+ * memory as a whole:
+ *
+ *  1. The businesses are read into a map from business_id to name and categories.
+ *  2. The reviews of those businesses are collected in a buffer of bounded size; whenever it is
+ *     full it is sorted by business_id and written to a temporary run file.
+ *  3. The runs are merged, so the reviews of each business arrive together, and every business
+ *     with at least one review becomes a document. At most 64 runs are open at a time; when
+ *     there are more, groups of them are first merged into longer runs:
+ *
+ *     business_id - the id, indexed as a single term and stored
+ *     name        - the business name, analyzed and stored
+ *     categories  - one untokenized, stored value per category
+ *     reviews     - the number of reviews, stored
+ *     TEXT        - the review texts, one per line, analyzed with StandardAnalyzer
+ *
+ * Options:
+ *  --category NAME   only index businesses in the category NAME (e.g. Restaurants)
+ *  --sort-mb N       memory for the review buffer before it is spilled to a run (default 64)
+ *  --tmp DIR         directory for the run files (default: the index directory)
+ *  --json FILE       also write every business as {"business_id", "text", "category"} lines, the
+ *                    format of RestaurantReviews.json
+ *
+ */
+import com.fasterxml.jackson.core.*;
+import com.fasterxml.jackson.core.io.SerializedString;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.document.*;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.Version;
+
+import java.io.*;
+import java.nio.charset.Charset;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+
+public class yelpIndex {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    // rough heap cost of a buffered review besides its characters
+    private static final int REVIEW_OVERHEAD = 96;
+    // run files open at once during a merge
+    static final int MERGE_FAN_IN = 64;
+
+    private final JsonFactory jsonFactory = new JsonFactory();
+
+    String category;
+    long sortBytes = 64L * 1024 * 1024;
+    File tmpDir;
+    File jsonOutput;
+
+    static class business {
+        String name;
+        List<String> categories = new ArrayList<String>();
+    }
+
+    private static class review {
+        final String businessId;
+        final String text;
+
+        review(String businessId, String text) {
+            this.businessId = businessId;
+            this.text = text;
+        }
+    }
+
+    /**
+     *
+     * @param businessFile - Yelp business export
+     * @param reviewFile   - Yelp review export
+     * @param indexDir     - Directory where the index is created
+     * @return number of businesses indexed
+     * @throws IOException
+     */
+
+    public int index(File businessFile, File reviewFile, File indexDir) throws IOException {
+        long start = System.nanoTime();
+        Map<String, business> businesses = readBusinesses(businessFile);
+        System.out.println("**************************************************************************");
+        System.out.println(String.format("Read %d businesses%s in %.2f sec", businesses.size(),
+                category == null ? "" : " in category " + category, (System.nanoTime() - start) / 1e9));
+
+        start = System.nanoTime();
+        File runDir = tmpDir == null ? indexDir : tmpDir;
+        if (!runDir.isDirectory() && !runDir.mkdirs()) {
+            throw new IOException("Cannot create " + runDir);
+        }
+        List<File> runs = new ArrayList<File>();
+        try {
+            long reviews = sortReviews(reviewFile, businesses, runDir, runs);
+            System.out.println(String.format("Sorted %d reviews into %d run(s) in %.2f sec", reviews, runs.size(),
+                    (System.nanoTime() - start) / 1e9));
+
+            start = System.nanoTime();
+            reduceRuns(runs, runDir);
+            int indexed = mergeAndIndex(runs, businesses, indexDir);
+            System.out.println(String.format("Indexed %d businesses with reviews in %.2f sec", indexed,
+                    (System.nanoTime() - start) / 1e9));
+            System.out.println("**************************************************************************");
+            return indexed;
+        } finally {
+            for (File run : runs) {
+                run.delete();
+            }
+        }
+    }
+
+    private JsonParser openJson(File file) throws IOException {
+        InputStream in = new BufferedInputStream(new FileInputStream(file), 64 * 1024);
+        if (file.getName().endsWith(".gz")) {
+            in = new GZIPInputStream(in, 64 * 1024);
+        }
+        return jsonFactory.createParser(in);
+    }
+
+    /**
+     * Moves the parser to the start of the next top-level object, stepping into a top-level array.
+     *
+     * @return false at the end of the input
+     */
+
+    private static boolean nextObject(JsonParser parser) throws IOException {
+        JsonToken token;
+        while ((token = parser.nextToken()) != null) {
+            if (token == JsonToken.START_OBJECT) {
+                return true;
+            }
+            if (token != JsonToken.START_ARRAY && token != JsonToken.END_ARRAY) {
+                throw new JsonParseException("Expected an object but found " + token, parser.getCurrentLocation());
+            }
+        }
+        return false;
+    }
+
+    Map<String, business> readBusinesses(File businessFile) throws IOException {
+        Map<String, business> businesses = new HashMap<String, business>();
+        JsonParser parser = openJson(businessFile);
+        try {
+            while (nextObject(parser)) {
+                String id = null;
+                business entry = new business();
+                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                    String field = parser.getCurrentName();
+                    JsonToken value = parser.nextToken();
+                    if (field.equals("business_id")) {
+                        id = parser.getText();
+                    } else if (field.equals("name") && value != JsonToken.VALUE_NULL) {
+                        entry.name = parser.getText();
+                    } else if (field.equals("categories")) {
+                        if (value == JsonToken.START_ARRAY) {
+                            while (parser.nextToken() != JsonToken.END_ARRAY) {
+                                entry.categories.add(parser.getText());
+                            }
+                        } else if (value == JsonToken.VALUE_STRING) {
+                            // later exports list the categories as one comma separated string
+                            for (String name : parser.getText().split(",")) {
+                                if (!name.trim().isEmpty()) {
+                                    entry.categories.add(name.trim());
+                                }
+                            }
+                        }
+                    } else {
+                        parser.skipChildren();
+                    }
+                }
+                if (id != null && (category == null || entry.categories.contains(category))) {
+                    businesses.put(id, entry);
+                }
+            }
+        } finally {
+            parser.close();
+        }
+        return businesses;
+    }
+
+    private long sortReviews(File reviewFile, Map<String, business> businesses, File runDir, List<File> runs)
+            throws IOException {
+        List<review> buffer = new ArrayList<review>();
+        long bufferBytes = 0;
+        long reviews = 0;
+        JsonParser parser = openJson(reviewFile);
+        try {
+            while (nextObject(parser)) {
+                String id = null;
+                String text = null;
+                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                    String field = parser.getCurrentName();
+                    JsonToken value = parser.nextToken();
+                    if (field.equals("business_id")) {
+                        id = parser.getText();
+                    } else if (field.equals("text") && value == JsonToken.VALUE_STRING) {
+                        text = parser.getText();
+                    } else {
+                        parser.skipChildren();
+                    }
+                }
+                if (id == null || text == null || text.isEmpty() || !businesses.containsKey(id)) {
+                    continue;
+                }
+                buffer.add(new review(id, text));
+                bufferBytes += 2L * (id.length() + text.length()) + REVIEW_OVERHEAD;
+                reviews++;
+                if (bufferBytes >= sortBytes) {
+                    runs.add(writeRun(buffer, runDir));
+                    buffer.clear();
+                    bufferBytes = 0;
+                }
+            }
+        } finally {
+            parser.close();
+        }
+        if (!buffer.isEmpty()) {
+            runs.add(writeRun(buffer, runDir));
+        }
+        return reviews;
+    }
+
+    // the sort is stable, so the reviews of a business keep the order of the export
+    private static File writeRun(List<review> buffer, File runDir) throws IOException {
+        Collections.sort(buffer, new Comparator<review>() {
+            @Override
+            public int compare(review a, review b) {
+                return a.businessId.compareTo(b.businessId);
+            }
+        });
+        File run = File.createTempFile("reviews-", ".run", runDir);
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(run), 64 * 1024));
+        try {
+            out.writeInt(buffer.size());
+            for (review entry : buffer) {
+                writeString(out, entry.businessId);
+                writeString(out, entry.text);
+            }
+        } finally {
+            out.close();
+        }
+        return run;
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(UTF8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static class runReader {
+
+        final int order;
+        final int count;
+        private final DataInputStream in;
+        private int remaining;
+        String businessId;
+        String text;
+
+        runReader(File run, int order) throws IOException {
+            this.order = order;
+            this.in = new DataInputStream(new BufferedInputStream(new FileInputStream(run), 64 * 1024));
+            this.count = in.readInt();
+            this.remaining = count;
+        }
+
+        boolean next() throws IOException {
+            if (remaining == 0) {
+                return false;
+            }
+            remaining--;
+            businessId = readString();
+            text = readString();
+            return true;
+        }
+
+        private String readString() throws IOException {
+            byte[] bytes = new byte[in.readInt()];
+            in.readFully(bytes);
+            return new String(bytes, UTF8);
+        }
+
+        void close() throws IOException {
+            in.close();
+        }
+    }
+
+    // opens the runs into <tt>readers</tt>; ties go to the earlier run, which keeps the merge stable
+    private static PriorityQueue<runReader> openRuns(List<File> runs, List<runReader> readers) throws IOException {
+        PriorityQueue<runReader> queue = new PriorityQueue<runReader>(Math.max(1, runs.size()), new Comparator<runReader>() {
+            @Override
+            public int compare(runReader a, runReader b) {
+                int cmp = a.businessId.compareTo(b.businessId);
+                return cmp != 0 ? cmp : Integer.compare(a.order, b.order);
+            }
+        });
+        for (int i = 0; i < runs.size(); i++) {
+            runReader reader = new runReader(runs.get(i), i);
+            readers.add(reader);
+            if (reader.next()) {
+                queue.add(reader);
+            }
+        }
+        return queue;
+    }
+
+    // merges groups of adjacent runs until at most MERGE_FAN_IN are left, replacing them in runs
+    private static void reduceRuns(List<File> runs, File runDir) throws IOException {
+        while (runs.size() > MERGE_FAN_IN) {
+            List<File> merged = new ArrayList<File>();
+            try {
+                for (int i = 0; i < runs.size(); i += MERGE_FAN_IN) {
+                    List<File> group = runs.subList(i, Math.min(i + MERGE_FAN_IN, runs.size()));
+                    merged.add(group.size() == 1 ? group.get(0) : mergeRuns(group, runDir));
+                }
+            } catch (IOException e) {
+                for (File run : merged) {
+                    if (!runs.contains(run)) {
+                        run.delete();
+                    }
+                }
+                throw e;
+            }
+            for (File run : runs) {
+                if (!merged.contains(run)) {
+                    run.delete();
+                }
+            }
+            runs.clear();
+            runs.addAll(merged);
+        }
+    }
+
+    private static File mergeRuns(List<File> group, File runDir) throws IOException {
+        File run = File.createTempFile("reviews-", ".run", runDir);
+        List<runReader> readers = new ArrayList<runReader>();
+        boolean done = false;
+        try {
+            PriorityQueue<runReader> queue = openRuns(group, readers);
+            int count = 0;
+            for (runReader reader : readers) {
+                count += reader.count;
+            }
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(run), 64 * 1024));
+            try {
+                out.writeInt(count);
+                while (!queue.isEmpty()) {
+                    runReader reader = queue.poll();
+                    writeString(out, reader.businessId);
+                    writeString(out, reader.text);
+                    if (reader.next()) {
+                        queue.add(reader);
+                    }
+                }
+            } finally {
+                out.close();
+            }
+            done = true;
+            return run;
+        } finally {
+            for (runReader reader : readers) {
+                reader.close();
+            }
+            if (!done) {
+                run.delete();
+            }
+        }
+    }
+
+    private int mergeAndIndex(List<File> runs, Map<String, business> businesses, File indexDir) throws IOException {
+        List<runReader> readers = new ArrayList<runReader>();
+        IndexWriterConfig iwc = new IndexWriterConfig(Version.LUCENE_4_10_0, new StandardAnalyzer());
+        iwc.setOpenMode(IndexWriterConfig.OpenMode.CREATE);
+        IndexWriter indexWriter = new IndexWriter(FSDirectory.open(indexDir), iwc);
+        JsonGenerator json = null;
+        int indexed = 0;
+        try {
+            if (jsonOutput != null) {
+                json = jsonFactory.createGenerator(jsonOutput, JsonEncoding.UTF8);
+                json.setRootValueSeparator(new SerializedString("\n"));
+            }
+            PriorityQueue<runReader> queue = openRuns(runs, readers);
+            StringBuilder text = new StringBuilder();
+            while (!queue.isEmpty()) {
+                String id = queue.peek().businessId;
+                int reviews = 0;
+                text.setLength(0);
+                while (!queue.isEmpty() && queue.peek().businessId.equals(id)) {
+                    runReader reader = queue.poll();
+                    if (reviews++ > 0) {
+                        text.append('\n');
+                    }
+                    text.append(reader.text);
+                    if (reader.next()) {
+                        queue.add(reader);
+                    }
+                }
+                business entry = businesses.get(id);
+                indexWriter.addDocument(toDocument(id, entry, text.toString(), reviews));
+                if (json != null) {
+                    writeJson(json, id, entry, text.toString());
+                }
+                indexed++;
+            }
+            indexWriter.forceMerge(1);
+            indexWriter.commit();
+        } finally {
+            indexWriter.close();
+            for (runReader reader : readers) {
+                reader.close();
+            }
+            if (json != null) {
+                json.close();
+            }
+        }
+        return indexed;
+    }
+
+    static Document toDocument(String id, business entry, String text, int reviews) {
+        Document doc = new Document();
+        doc.add(new StringField("business_id", id, Field.Store.YES));
+        if (entry.name != null) {
+            doc.add(new TextField("name", entry.name, Field.Store.YES));
+        }
+        for (String name : entry.categories) {
+            doc.add(new StringField("categories", name, Field.Store.YES));
+        }
+        doc.add(new StoredField("reviews", reviews));
+        doc.add(new TextField("TEXT", text, Field.Store.NO));
+        return doc;
+    }
+
+    private static void writeJson(JsonGenerator json, String id, business entry, String text) throws IOException {
+        json.writeStartObject();
+        json.writeStringField("business_id", id);
+        json.writeStringField("text", text);
+        json.writeArrayFieldStart("category");
+        for (String name : entry.categories) {
+            json.writeString(name);
+        }
+        json.writeEndArray();
+        json.writeEndObject();
+    }
+
+    public static void main(String[] args) {
+        if (args.length < 3) {
+            System.out.println("Usage: java " + yelpIndex.class.getName() + " <Business JSON> <Review JSON> <Index Directory>"
+                    + " [--category NAME] [--sort-mb N] [--tmp DIR] [--json FILE]");
+            System.exit(-1);
+        }
+        yelpIndex obj = new yelpIndex();
+        for (int i = 3; i < args.length; i++) {
+            if (args[i].equals("--category") && i + 1 < args.length) {
+                obj.category = args[++i];
+            } else if (args[i].equals("--sort-mb") && i + 1 < args.length) {
+                obj.sortBytes = Long.parseLong(args[++i]) * 1024 * 1024;
+            } else if (args[i].equals("--tmp") && i + 1 < args.length) {
+                obj.tmpDir = new File(args[++i]);
+            } else if (args[i].equals("--json") && i + 1 < args.length) {
+                obj.jsonOutput = new File(args[++i]);
+            } else {
+                System.out.println("Unknown option: " + args[i]);
+                System.exit(-1);
+            }
+        }
+        long startTime = System.currentTimeMillis();
+        boolean failed = false;
+        try {
+            obj.index(new File(args[0]), new File(args[1]), new File(args[2]));
+        } catch (IOException e) {
+            e.printStackTrace();
+            failed = true;
+        }
+        long endTime = System.currentTimeMillis();
+        long millis = endTime - startTime;
+        System.out.print("Time taken: "+String.format("%d min, %d sec",
+                TimeUnit.MILLISECONDS.toMinutes(millis),
+                TimeUnit.MILLISECONDS.toSeconds(millis) -
+                        TimeUnit.MINUTES.toSeconds(TimeUnit.MILLISECONDS.toMinutes(millis))
+        ));
+        if (failed) {
+            System.exit(1);
+        }
+    }
+}